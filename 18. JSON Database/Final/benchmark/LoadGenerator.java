@@ -0,0 +1,284 @@
+package benchmark;
+
+import client.Connection;
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import server.net.BinaryFraming;
+import server.net.Framing;
+import server.stats.Histogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load against a running server over the client protocol, one thread per connection.
+ *
+ * Without a rate the load is closed-loop: every connection sends its next request as
+ * soon as the previous response arrives, which measures the highest throughput. With
+ * --rate it is open-loop: requests are scheduled at fixed intervals, and latency is
+ * measured from the time a request was due, not from when it was sent. A stalled server
+ * delays every request scheduled behind the stall, and these waits count, instead of
+ * being hidden by the client sending less (coordinated omission). The service time,
+ * from send to response, is reported alongside.
+ *
+ * The server must keep connections open: nio mode, or thread mode with --keep-alive.
+ *
+ * Usage: LoadGenerator [--rate n] [--connections n] [--read-percent n] [--keys n]
+ *        [--distribution uniform|zipfian] [--depth n] [--value-size n] [--duration s] ...
+ */
+public class LoadGenerator {
+
+    private static final String ADDRESS = "127.0.0.1";
+    private static final int PRELOAD_WINDOW = 256;
+
+    static class Args {
+        @Parameter(names = {"-p", "--port"}, description = "Server port", order = 0)
+        int port = 8000;
+
+        @Parameter(names = {"-f", "--framing"}, description = "utf or binary, as on the server", order = 1)
+        String framing = "utf";
+
+        @Parameter(names = {"-c", "--connections"}, description = "Connections, each with its own thread", order = 2)
+        int connections = 4;
+
+        @Parameter(names = {"-r", "--rate"}, description = "Requests per second over all connections, 0 for closed-loop", order = 3)
+        int rate = 0;
+
+        @Parameter(names = {"-d", "--duration"}, description = "Seconds measured", order = 4)
+        int duration = 10;
+
+        @Parameter(names = {"--warmup"}, description = "Seconds run before measuring", order = 5)
+        int warmup = 2;
+
+        @Parameter(names = {"--read-percent"}, description = "Share of gets, the rest are sets", order = 6)
+        int readPercent = 90;
+
+        @Parameter(names = {"-k", "--keys"}, description = "Number of top-level keys", order = 7)
+        int keys = 10_000;
+
+        @Parameter(names = {"--distribution"}, description = "Key popularity: uniform or zipfian", order = 8)
+        String distribution = "uniform";
+
+        @Parameter(names = {"--zipf-theta"}, description = "Skew of the zipfian distribution, below 1", order = 9)
+        double zipfTheta = 0.99;
+
+        @Parameter(names = {"--depth"}, description = "Length of the key path, 1 for top-level keys", order = 10)
+        int depth = 1;
+
+        @Parameter(names = {"--value-size"}, description = "Characters of each value set", order = 11)
+        int valueSize = 100;
+
+        @Parameter(names = {"--no-preload"}, description = "Skip setting every key before the run", order = 12)
+        boolean noPreload = false;
+    }
+
+    /** Everything recorded in one phase; warm-up and measurement get their own. */
+    private static final class Recorder {
+        final Histogram corrected = new Histogram();
+        final Histogram service = new Histogram();
+        final LongAdder reads = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private static volatile Recorder recorder = new Recorder();
+    private static volatile boolean running = true;
+
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args();
+        JCommander.newBuilder().addObject(args).build().parse(argv);
+        Framing framing = Framing.of(args.framing, BinaryFraming.DEFAULT_CHUNK_SIZE);
+        boolean open = args.rate > 0;
+        Zipfian zipfian = "zipfian".equals(args.distribution) ? new Zipfian(args.keys, args.zipfTheta) : null;
+        if (zipfian == null && !"uniform".equals(args.distribution)) {
+            throw new IllegalArgumentException("Unknown distribution: " + args.distribution);
+        }
+
+        String[] keys = new String[args.keys];
+        for (int k = 0; k < keys.length; k++) {
+            keys[k] = key(k, args.depth).toString();
+        }
+        String value = new JsonPrimitive("x".repeat(Math.max(0, args.valueSize))).toString();
+
+        System.out.printf("%s loop, %s connections=%d reads=%d%% keys=%d %s depth=%d value=%d chars%n",
+                open ? "open" : "closed", open ? "rate=" + args.rate + "/s" : "",
+                args.connections, args.readPercent, args.keys, args.distribution, args.depth, args.valueSize);
+
+        List<Connection> connections = new ArrayList<>();
+        for (int c = 0; c < args.connections; c++) {
+            connections.add(new Connection(ADDRESS, args.port, framing));
+        }
+        if (!args.noPreload) {
+            long start = System.nanoTime();
+            preload(connections.get(0), keys, value);
+            System.out.printf("Preloaded %d keys in %d ms%n", keys.length, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        // Each connection takes its share of the rate, the schedules staggered evenly
+        long interval = open ? (long) (1e9 * args.connections / args.rate) : 0;
+        CountDownLatch done = new CountDownLatch(args.connections);
+        long begin = System.nanoTime();
+        for (int c = 0; c < args.connections; c++) {
+            Connection connection = connections.get(c);
+            long first = begin + interval * c / args.connections;
+            new Thread(() -> {
+                try {
+                    run(connection, first, interval, keys, value, zipfian, args.readPercent);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + c).start();
+        }
+
+        Thread.sleep(args.warmup * 1000L);
+        Recorder measured = new Recorder();
+        recorder = measured;
+        long start = System.nanoTime();
+        Thread.sleep(args.duration * 1000L);
+        running = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        done.await();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        report(measured, seconds, open);
+    }
+
+    private static void run(Connection connection, long first, long interval, String[] keys, String value,
+                            Zipfian zipfian, int readPercent) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder request = new StringBuilder(value.length() + 64);
+        long due = first;
+        while (running) {
+            if (interval > 0) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+            }
+            int k = zipfian != null ? zipfian.next(random) : random.nextInt(keys.length);
+            boolean read = random.nextInt(100) < readPercent;
+            request.setLength(0);
+            if (read) {
+                request.append("{\"type\":\"get\",\"key\":").append(keys[k]).append('}');
+            } else {
+                request.append("{\"type\":\"set\",\"key\":").append(keys[k]).append(",\"value\":").append(value).append('}');
+            }
+
+            long sent = System.nanoTime();
+            String response = connection.request(request.toString());
+            long received = System.nanoTime();
+
+            Recorder current = recorder;
+            current.service.record(received - sent);
+            // Closed-loop requests are due when sent
+            current.corrected.record(received - (interval > 0 ? due : sent));
+            (read ? current.reads : current.writes).increment();
+            if (!response.startsWith("{\"response\":\"OK\"")) {
+                current.errors.increment();
+            }
+            due += interval;
+        }
+    }
+
+    private static void preload(Connection connection, String[] keys, String value) throws IOException {
+        for (int from = 0; from < keys.length; from += PRELOAD_WINDOW) {
+            int to = Math.min(keys.length, from + PRELOAD_WINDOW);
+            for (int k = from; k < to; k++) {
+                connection.send("{\"type\":\"set\",\"key\":" + keys[k] + ",\"value\":" + value + "}");
+            }
+            connection.flush();
+            for (int k = from; k < to; k++) {
+                connection.receive();
+            }
+        }
+    }
+
+    private static void report(Recorder measured, double seconds, boolean open) {
+        long reads = measured.reads.sum();
+        long writes = measured.writes.sum();
+        System.out.printf("Throughput %,.0f req/s (gets %,.0f/s, sets %,.0f/s), %d errors%n",
+                (reads + writes) / seconds, reads / seconds, writes / seconds, measured.errors.sum());
+        System.out.printf("%-14s %10s %10s %10s %10s %10s%n", "latency (us)", "p50", "p90", "p99", "p999", "max");
+        if (open) {
+            print("corrected", measured.corrected);
+        }
+        print("service time", measured.service);
+        if (!open) {
+            System.out.println("Closed loop: a slow response also delays the requests behind it; use --rate to count that");
+        }
+    }
+
+    private static void print(String name, Histogram histogram) {
+        System.out.printf("%-14s %10.1f %10.1f %10.1f %10.1f %10.1f%n", name,
+                histogram.percentile(0.5) / 1e3, histogram.percentile(0.9) / 1e3, histogram.percentile(0.99) / 1e3,
+                histogram.percentile(0.999) / 1e3, histogram.percentile(1.0) / 1e3);
+    }
+
+    private static JsonElement key(int k, int depth) {
+        if (depth <= 1) {
+            return new JsonPrimitive("key" + k);
+        }
+        JsonArray path = new JsonArray();
+        path.add("key" + k);
+        for (int d = 1; d < depth; d++) {
+            path.add("level" + d);
+        }
+        return path;
+    }
+
+    /**
+     * Zipfian ranks in [0, n): rank 0 is the most popular. The constant-time method of
+     * Gray et al., "Quickly generating billion-record synthetic databases", as in YCSB.
+     */
+    static final class Zipfian {
+
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        Zipfian(int n, double theta) {
+            if (theta <= 0 || theta >= 1) {
+                throw new IllegalArgumentException("Zipfian theta must be in (0, 1)");
+            }
+            this.n = n;
+            this.theta = theta;
+            this.alpha = 1 / (1 - theta);
+            this.zetaN = zeta(n, theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        int next(ThreadLocalRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return Math.min(1, n - 1);
+            }
+            return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import server.database.Database;
+import server.database.locks.GlobalLocks;
+import server.database.locks.KeyLocks;
+import server.database.locks.StripedLocks;
+import server.database.persistence.MemoryPersistence;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of concurrent get/set on the in-memory database, global lock against
+ * striped locks. Persistence is disabled so only the locking is measured.
+ *
+ * Usage: LockContentionBenchmark [threads] [seconds] [keys] [read percent] [key depth]
+ */
+public class LockContentionBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int keys = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int readPercent = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+
+        System.out.printf("threads=%d seconds=%d keys=%d reads=%d%% depth=%d%n",
+                threads, seconds, keys, readPercent, depth);
+        run("global", new GlobalLocks(), threads, seconds, keys, readPercent, depth);
+        run("striped", new StripedLocks(64), threads, seconds, keys, readPercent, depth);
+    }
+
+    private static void run(String name, KeyLocks locks, int threads, int seconds, int keys,
+                            int readPercent, int depth) throws InterruptedException {
+        Database db = Database.INSTANCE;
+        db.setPersistence(new MemoryPersistence());
+        db.setLocks(locks);
+        db.init();
+        for (int k = 0; k < keys; k++) {
+            db.set(key(k, depth), new JsonPrimitive(k));
+        }
+
+        // Warm up, then measure
+        measure(threads, 1, keys, readPercent, depth);
+        long ops = measure(threads, seconds, keys, readPercent, depth);
+        System.out.printf("%-8s %,12d ops/s%n", name, ops / seconds);
+    }
+
+    private static long measure(int threads, int seconds, int keys, int readPercent, int depth)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    JsonElement key = key(random.nextInt(keys), depth);
+                    if (random.nextInt(100) < readPercent) {
+                        Database.INSTANCE.get(key);
+                    } else {
+                        Database.INSTANCE.set(key, new JsonPrimitive(random.nextInt()));
+                    }
+                    ops.increment();
+                }
+                done.countDown();
+            }).start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        done.await();
+        return ops.sum();
+    }
+
+    private static JsonElement key(int k, int depth) {
+        if (depth <= 1) {
+            return new JsonPrimitive("key" + k);
+        }
+        JsonArray path = new JsonArray();
+        path.add("key" + k);
+        for (int d = 1; d < depth; d++) {
+            path.add("level" + d);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,134 @@
+package benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import server.database.Database;
+import server.database.KeyPath;
+import server.database.Mutation;
+import server.database.locks.StripedLocks;
+import server.database.persistence.MemoryPersistence;
+import server.exceptions.TransactionConflictException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transfers between random accounts: read two balances with their versions, then
+ * commit both new balances as one transaction, retrying on conflict. Fewer accounts
+ * mean more conflicts. For comparison the same transfer runs pessimistically inside
+ * {@link Database#batch}, which holds every lock.
+ *
+ * Usage: TransactionBenchmark [threads] [seconds] [accounts...]
+ */
+public class TransactionBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int[] accounts = args.length > 2
+                ? Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{2, 16, 1000};
+
+        Database db = Database.INSTANCE;
+        db.setPersistence(new MemoryPersistence());
+        db.setLocks(new StripedLocks(64));
+        System.out.printf("threads=%d seconds=%d%n", threads, seconds);
+        for (int count : accounts) {
+            db.init();
+            for (int a = 0; a < count; a++) {
+                db.set(account(a), new JsonPrimitive(1000));
+            }
+            measure(threads, 1, count, true);
+            Result optimistic = measure(threads, seconds, count, true);
+            Result pessimistic = measure(threads, seconds, count, false);
+            System.out.printf("accounts=%-6d optimistic %,10d tx/s %5.1f%% conflicts   batch %,10d tx/s%n",
+                    count, optimistic.commits / seconds, optimistic.conflictPercent(), pessimistic.commits / seconds);
+        }
+    }
+
+    private static Result measure(int threads, int seconds, int accounts, boolean optimistic)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder commits = new LongAdder();
+        LongAdder conflicts = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    int from = random.nextInt(accounts);
+                    int to = (from + 1 + random.nextInt(Math.max(1, accounts - 1))) % accounts;
+                    if (optimistic) {
+                        while (!transfer(from, to)) {
+                            conflicts.increment();
+                        }
+                    } else {
+                        Database.INSTANCE.batch(() -> move(from, to));
+                    }
+                    commits.increment();
+                }
+                done.countDown();
+            }).start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        done.await();
+        return new Result(commits.sum(), conflicts.sum());
+    }
+
+    private static boolean transfer(int from, int to) {
+        Database db = Database.INSTANCE;
+        JsonElement fromKey = account(from);
+        JsonElement toKey = account(to);
+        long fromVersion = db.version(fromKey);
+        long toVersion = db.version(toKey);
+        long fromBalance = db.get(fromKey).getAsLong();
+        long toBalance = db.get(toKey).getAsLong();
+
+        Map<KeyPath, Long> reads = new LinkedHashMap<>();
+        reads.put(KeyPath.of(fromKey), fromVersion);
+        reads.put(KeyPath.of(toKey), toVersion);
+        try {
+            db.transaction(reads, Arrays.asList(
+                    Mutation.set(fromKey, new JsonPrimitive(fromBalance - 1)),
+                    Mutation.set(toKey, new JsonPrimitive(toBalance + 1))));
+            return true;
+        } catch (TransactionConflictException e) {
+            return false;
+        }
+    }
+
+    private static void move(int from, int to) {
+        Database db = Database.INSTANCE;
+        db.set(account(from), new JsonPrimitive(db.get(account(from)).getAsLong() - 1));
+        db.set(account(to), new JsonPrimitive(db.get(account(to)).getAsLong() + 1));
+    }
+
+    private static JsonElement account(int a) {
+        JsonArray path = new JsonArray();
+        path.add("account" + (a % 64));
+        path.add("balance" + a);
+        return path;
+    }
+
+    private static final class Result {
+        final long commits;
+        final long conflicts;
+
+        Result(long commits, long conflicts) {
+            this.commits = commits;
+            this.conflicts = conflicts;
+        }
+
+        double conflictPercent() {
+            long attempts = commits + conflicts;
+            return attempts == 0 ? 0 : 100.0 * conflicts / attempts;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import server.cli.requests.Response;
+import server.exceptions.OverloadedException;
+import server.net.Framing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A client for applications: requests return futures and share a small pool of
+ * persistent connections, opened on first use and reopened after a failure. Every
+ * connection carries many requests at once. They are written as they come, and a
+ * reader thread completes their futures in order, since the server answers in order.
+ * Thread-safe.
+ *
+ * A request that gets no response within the timeout fails with a
+ * {@link SocketTimeoutException}. Failed requests are retried with exponential
+ * backoff, but only when repeating them is harmless: a request that may have
+ * reached the server is retried only if it is idempotent. An "Overloaded" error
+ * means the server executed nothing, so any request is retried after one.
+ */
+public class AsyncClient implements Closeable {
+
+    // Requests with the same outcome when applied twice
+    private static final Set<String> IDEMPOTENT = Set.of("get", "set", "merge", "replication");
+    private static final Gson GSON = new Gson();
+    private static final String OVERLOADED = "\"reason\":\"" + new OverloadedException().getMessage() + "\"";
+
+    private final String host;
+    private final int port;
+    private final Framing framing;
+    private final PooledConnection[] pool;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "db-client-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long timeoutMillis = 5000;
+    private volatile int retries = 2;
+    private volatile long backoffMillis = 50;
+    private volatile boolean closed;
+
+    public AsyncClient(String host, int port, Framing framing, int poolSize) {
+        this.host = host;
+        this.port = port;
+        this.framing = framing;
+        this.pool = new PooledConnection[Math.max(1, poolSize)];
+    }
+
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** Retries after the first attempt; the n-th waits a random time up to backoff * 2^(n-1). */
+    public void setRetries(int retries, long backoffMillis) {
+        this.retries = retries;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /** Sends a json request; the future holds the json response. */
+    public CompletableFuture<String> request(String request) {
+        JsonElement type = JsonParser.parseString(request).getAsJsonObject().get("type");
+        boolean idempotent = type != null && IDEMPOTENT.contains(type.getAsString());
+        CompletableFuture<String> result = new CompletableFuture<>();
+        attempt(request, idempotent, 0, result);
+        return result;
+    }
+
+    public CompletableFuture<Response> request(JsonObject request) {
+        return request(request.toString()).thenApply(json -> GSON.fromJson(json, Response.class));
+    }
+
+    public CompletableFuture<Response> get(JsonElement key) {
+        return request(operation("get", key));
+    }
+
+    public CompletableFuture<Response> set(JsonElement key, JsonElement value) {
+        JsonObject request = operation("set", key);
+        request.add("value", value);
+        return request(request);
+    }
+
+    public CompletableFuture<Response> delete(JsonElement key) {
+        return request(operation("delete", key));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        timer.shutdownNow();
+        synchronized (pool) {
+            for (PooledConnection connection : pool) {
+                if (connection != null) {
+                    connection.fail(new IOException("Client closed"));
+                }
+            }
+        }
+    }
+
+    /** The cause of a failed future, as the IOException that a blocking call would throw. */
+    static IOException unwrap(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof TimeoutException) {
+            return new SocketTimeoutException("No response in time");
+        }
+        return new IOException(cause);
+    }
+
+    private static JsonObject operation(String type, JsonElement key) {
+        JsonObject request = new JsonObject();
+        request.addProperty("type", type);
+        request.add("key", key);
+        return request;
+    }
+
+    private void attempt(String request, boolean idempotent, int attempt, CompletableFuture<String> result) {
+        PooledConnection connection;
+        try {
+            connection = pick();
+        } catch (IOException e) {
+            // Nothing was sent
+            retryOrFail(request, idempotent, attempt, result, e, true);
+            return;
+        }
+        CompletableFuture<String> call;
+        try {
+            call = connection.send(request);
+        } catch (IOException e) {
+            retryOrFail(request, idempotent, attempt, result, e, idempotent);
+            return;
+        }
+        call.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((response, failure) -> {
+            if (failure == null) {
+                if (!isOverloaded(response) || !retryLater(request, idempotent, attempt, result)) {
+                    result.complete(response);
+                }
+            } else {
+                retryOrFail(request, idempotent, attempt, result, unwrap(failure), idempotent);
+            }
+        });
+    }
+
+    private void retryOrFail(String request, boolean idempotent, int attempt, CompletableFuture<String> result,
+                             IOException failure, boolean retryable) {
+        if (!retryable || !retryLater(request, idempotent, attempt, result)) {
+            result.completeExceptionally(failure);
+        }
+    }
+
+    /** Schedules the next attempt after a backoff, false if there is none left. */
+    private boolean retryLater(String request, boolean idempotent, int attempt, CompletableFuture<String> result) {
+        if (closed || attempt >= retries) {
+            return false;
+        }
+        // Full jitter, so that clients failing together do not retry together
+        long delay = ThreadLocalRandom.current().nextLong((backoffMillis << attempt) + 1);
+        try {
+            timer.schedule(() -> attempt(request, idempotent, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RuntimeException e) {
+            // Closed meanwhile
+            return false;
+        }
+    }
+
+    private static boolean isOverloaded(String response) {
+        return response.startsWith("{\"response\":\"" + Response.STATUS_ERROR + "\"") && response.contains(OVERLOADED);
+    }
+
+    /** The open connection with the fewest requests in flight, opening one if a slot is empty. */
+    private PooledConnection pick() throws IOException {
+        synchronized (pool) {
+            if (closed) {
+                throw new IOException("Client closed");
+            }
+            PooledConnection best = null;
+            for (int i = 0; i < pool.length; i++) {
+                if (pool[i] == null || pool[i].isBroken()) {
+                    pool[i] = new PooledConnection(new Connection(host, port, framing));
+                }
+                if (best == null || pool[i].inFlight() < best.inFlight()) {
+                    best = pool[i];
+                }
+                if (best.inFlight() == 0) {
+                    break;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static final class PooledConnection {
+
+        private final Connection connection;
+        // Futures of the requests sent and not yet answered, in order; guarded by this
+        private final Queue<CompletableFuture<String>> inFlight = new ArrayDeque<>();
+        private boolean broken;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            Thread reader = new Thread(this::read, "db-client-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        synchronized CompletableFuture<String> send(String request) throws IOException {
+            if (broken) {
+                throw new IOException("Connection closed");
+            }
+            try {
+                connection.send(request);
+                connection.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            CompletableFuture<String> call = new CompletableFuture<>();
+            inFlight.add(call);
+            return call;
+        }
+
+        synchronized int inFlight() {
+            return inFlight.size();
+        }
+
+        synchronized boolean isBroken() {
+            return broken;
+        }
+
+        synchronized void fail(IOException failure) {
+            broken = true;
+            try {
+                connection.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            CompletableFuture<String> call;
+            while ((call = inFlight.poll()) != null) {
+                call.completeExceptionally(failure);
+            }
+        }
+
+        private void read() {
+            try {
+                while (true) {
+                    String response = connection.receive();
+                    CompletableFuture<String> call;
+                    synchronized (this) {
+                        call = inFlight.poll();
+                    }
+                    // Null or already failed by a timeout: nobody waits for this response
+                    if (call != null) {
+                        call.complete(response);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import server.cli.requests.Response;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a file of requests (one json object per line) over a single connection,
+ * or over one connection per shard.
+ * Requests are grouped into "batch" requests of {@code batchSize} operations and
+ * pipelined: a reader thread collects the responses while the file is still being sent.
+ */
+public class BulkLoader {
+
+    private final Client connection;
+    private final int batchSize;
+    private final AtomicLong ok = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public BulkLoader(Client connection, int batchSize) {
+        this.connection = connection;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void load(Path file) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long requests = 0;
+        long operations = 0;
+
+        // One TRUE per request in flight, FALSE once everything has been sent
+        BlockingQueue<Boolean> inFlight = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> readResponses(inFlight));
+        reader.start();
+
+        try (BufferedReader lines = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonArray batch = new JsonArray();
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                batch.add(JsonParser.parseString(line));
+                operations++;
+                if (batch.size() == batchSize) {
+                    send(batch, inFlight);
+                    requests++;
+                    batch = new JsonArray();
+                }
+            }
+            if (batch.size() > 0) {
+                send(batch, inFlight);
+                requests++;
+            }
+            connection.flush();
+        } finally {
+            inFlight.add(false);
+        }
+        reader.join();
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("Sent %d operations in %d requests, %d ms%n", operations, requests, millis);
+        System.out.printf("Received: %d OK, %d ERROR%n", ok.get(), errors.get());
+    }
+
+    private void send(JsonArray batch, BlockingQueue<Boolean> inFlight) throws IOException {
+        String request;
+        if (batchSize == 1) {
+            request = batch.get(0).toString();
+        } else {
+            JsonObject json = new JsonObject();
+            json.addProperty("type", "batch");
+            json.add("requests", batch);
+            request = json.toString();
+        }
+        connection.send(request);
+        inFlight.add(true);
+    }
+
+    private void readResponses(BlockingQueue<Boolean> inFlight) {
+        Gson gson = new Gson();
+        try {
+            while (inFlight.take()) {
+                count(gson.fromJson(connection.receive(), Response.class));
+            }
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void count(Response response) {
+        if (response.getResponses() != null) {
+            response.getResponses().forEach(this::count);
+        } else if (Response.STATUS_OK.equals(response.getResponse())) {
+            ok.incrementAndGet();
+        } else {
+            errors.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package client;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sends requests and reads their responses in order. Requests may be sent
+ * back-to-back with {@link #send} and their responses read later with {@link #receive}.
+ */
+public interface Client extends Closeable {
+
+    void send(String request) throws IOException;
+
+    void flush() throws IOException;
+
+    String receive() throws IOException;
+
+    default String request(String request) throws IOException {
+        send(request);
+        flush();
+        return receive();
+    }
+}
@@ -0,0 +1,56 @@
+package client;
+
+import server.net.Framing;
+import server.net.UtfFraming;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * A persistent connection to the server. Requests may be sent back-to-back with
+ * {@link #send} and their responses read later with {@link #receive}, in order.
+ */
+public class Connection implements Client {
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final Framing framing;
+
+    public Connection(String address, int port) throws IOException {
+        this(address, port, new UtfFraming());
+    }
+
+    public Connection(String address, int port, Framing framing) throws IOException {
+        this.framing = framing;
+        socket = new Socket(InetAddress.getByName(address), port);
+        socket.setTcpNoDelay(true);
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    @Override
+    public void send(String request) throws IOException {
+        framing.write(output, request);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public String receive() throws IOException {
+        return framing.read(input);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
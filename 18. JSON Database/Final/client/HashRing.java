@@ -0,0 +1,58 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing: every node is placed on a ring of 64-bit hashes at
+ * {@code virtualNodes} points, and a key belongs to the first point at or after
+ * its own hash. Adding or removing a node only moves the keys of its points,
+ * about 1/N of them, and the virtual nodes spread them evenly over the others.
+ * Immutable: a changed node list means a new ring.
+ */
+public final class HashRing<T> {
+
+    private final NavigableMap<Long, T> ring = new TreeMap<>();
+    private final List<T> nodes;
+
+    public HashRing(Collection<T> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs nodes");
+        }
+        this.nodes = List.copyOf(nodes);
+        for (T node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On the rare collision the first node keeps the point
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public T owner(String key) {
+        Map.Entry<Long, T> point = ring.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    /** FNV-1a with the murmur3 finalizer, so that similar names land far apart. */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93a1f8e9c63L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -5,16 +5,11 @@ package client;
 import com.beust.jcommander.JCommander;
 import server.cli.CommandLineArgs;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.Socket;
 
 public class Main {
 
     private static final String ADDRESS = "127.0.0.1";
-    private static final int PORT = 8000;
 
     public static void main(String[] args) {
 
@@ -29,18 +24,55 @@ public class Main {
                 .build()
                 .parse(args);
 
-        try (
-                Socket socket = new Socket(InetAddress.getByName(ADDRESS), PORT);
-                DataInputStream input = new DataInputStream(socket.getInputStream());
-                DataOutputStream output = new DataOutputStream(socket.getOutputStream())
-        ) {
+        if (cla.getRebalanceFrom() != null) {
+            if (cla.getShards() == null) {
+                System.out.println("--rebalance-from needs --shards");
+                return;
+            }
+            try (ShardedClient client = new ShardedClient(cla.getRebalanceFrom(), cla.getVirtualNodes(), cla.getFraming())) {
+                int moved = client.setShards(cla.getShards());
+                System.out.printf("Moved %d keys to %s%n", moved, cla.getShards());
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            if (cla.getType() == null && cla.getFilename() == null && cla.getBatchFile() == null) {
+                return;
+            }
+        }
+
+        if (cla.getBatchFile() != null) {
+            try (Client connection = connect(cla)) {
+                new BulkLoader(connection, cla.getBatchSize()).load(cla.getBatchPath());
+            }
+            catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        try (Client connection = connect(cla)) {
             String request = cla.toJson();
-            output.writeUTF(request);
+            connection.send(request);
+            connection.flush();
             System.out.printf("Sent: %s \n", request);
-            System.out.print("Received: " + input.readUTF());
+            System.out.print("Received: " + connection.receive());
         }
         catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    private static Client connect(CommandLineArgs cla) throws IOException {
+        if (cla.getShards() != null) {
+            return new ShardedClient(cla.getShards(), cla.getVirtualNodes(), cla.getFraming());
+        }
+        if (cla.getPoolSize() > 0) {
+            AsyncClient client = new AsyncClient(ADDRESS, cla.getPort(), cla.getFraming(), cla.getPoolSize());
+            client.setTimeout(cla.getTimeoutMillis());
+            return new SyncClient(client);
+        }
+        return new Connection(ADDRESS, cla.getPort(), cla.getFraming());
+    }
 }
@@ -0,0 +1,440 @@
+package client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import server.cli.commands.ScanCommand;
+import server.cli.requests.Response;
+import server.net.Framing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Spreads the database over several servers, each holding the top-level keys that
+ * a {@link HashRing} assigns to it. A request goes to the server of its key; a batch
+ * is split into one batch per server. Every part is sent before any response is read,
+ * so the servers work on them in parallel, and the responses are put back in the
+ * order of the original batch.
+ *
+ * Requests without a key, get of the whole database, and index and query, whose
+ * key names a field rather than a record, go to every server and the values are
+ * merged. A transaction must keep to the keys of one server.
+ */
+public class ShardedClient implements Client {
+
+    static final String CROSS_SHARD = "Keys on different shards";
+    // Requests sent by a rebalance before their responses are read
+    private static final int REBALANCE_WINDOW = 1000;
+
+    private final int virtualNodes;
+    private final Framing framing;
+    private final Map<String, Connection> connections = new LinkedHashMap<>();
+    private HashRing<String> ring;
+    // How to read the response of each request sent, in order
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+
+    private interface Pending {
+        String receive() throws IOException;
+    }
+
+    /** Shards are given as host:port. */
+    public ShardedClient(List<String> shards, int virtualNodes, Framing framing) throws IOException {
+        this.virtualNodes = virtualNodes;
+        this.framing = framing;
+        this.ring = new HashRing<>(shards, virtualNodes);
+        try {
+            connect(shards);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public List<String> getShards() {
+        return ring.getNodes();
+    }
+
+    public String shardOf(String topKey) {
+        return ring.owner(topKey);
+    }
+
+    @Override
+    public void send(String request) throws IOException {
+        JsonObject json = JsonParser.parseString(request).getAsJsonObject();
+        if ("batch".equals(type(json)) && json.has("requests")) {
+            sendBatch(json);
+            return;
+        }
+        Set<Connection> shards = shards(json);
+        if (shards.size() == 1) {
+            Connection shard = shards.iterator().next();
+            shard.send(request);
+            pending.add(shard::receive);
+        } else if ("transaction".equals(type(json))) {
+            String error = error(CROSS_SHARD);
+            pending.add(() -> error);
+        } else {
+            List<Connection> all = new ArrayList<>(connections.values());
+            for (Connection shard : all) {
+                shard.send(request);
+            }
+            if ("scan".equals(type(json))) {
+                int limit = json.has("limit") ? json.get("limit").getAsInt() : ScanCommand.DEFAULT_LIMIT;
+                pending.add(() -> mergeScan(all, limit));
+            } else if (isFieldRequest(json)) {
+                boolean query = "query".equals(type(json));
+                pending.add(() -> mergeFieldResults(all, query));
+            } else {
+                pending.add(() -> merge(all));
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (Connection connection : connections.values()) {
+            connection.flush();
+        }
+    }
+
+    @Override
+    public String receive() throws IOException {
+        Pending next = pending.poll();
+        if (next == null) {
+            throw new IllegalStateException("No request in flight");
+        }
+        return next.receive();
+    }
+
+    /**
+     * Switches to a new list of shards and moves every top-level key whose owner
+     * changed: it is copied to the new owner, then deleted from the old one. No
+     * request may be in flight, and other clients should not write meanwhile, since
+     * a write to a key being moved could be lost. Expiry times are not carried over.
+     *
+     * @return the number of keys moved
+     */
+    public int setShards(List<String> shards) throws IOException {
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("Requests in flight");
+        }
+        HashRing<String> next = new HashRing<>(shards, virtualNodes);
+        connect(shards);
+
+        int moved = 0;
+        for (String shard : ring.getNodes()) {
+            Connection from = connections.get(shard);
+            JsonObject request = new JsonObject();
+            request.addProperty("type", "get");
+            request.add("key", new JsonArray());
+            JsonObject response = JsonParser.parseString(from.request(request.toString())).getAsJsonObject();
+            check(response);
+
+            List<Map.Entry<Connection, String>> copies = new ArrayList<>();
+            List<Map.Entry<Connection, String>> deletes = new ArrayList<>();
+            for (Map.Entry<String, JsonElement> entry : response.getAsJsonObject("value").entrySet()) {
+                String owner = next.owner(entry.getKey());
+                if (owner.equals(shard)) {
+                    continue;
+                }
+                JsonObject set = new JsonObject();
+                set.addProperty("type", "set");
+                set.addProperty("key", entry.getKey());
+                set.add("value", entry.getValue());
+                copies.add(Map.entry(connections.get(owner), set.toString()));
+                JsonObject delete = new JsonObject();
+                delete.addProperty("type", "delete");
+                delete.addProperty("key", entry.getKey());
+                deletes.add(Map.entry(from, delete.toString()));
+            }
+            pipeline(copies);
+            pipeline(deletes);
+            moved += copies.size();
+        }
+
+        ring = next;
+        connections.entrySet().removeIf(entry -> {
+            if (shards.contains(entry.getKey())) {
+                return false;
+            }
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return true;
+        });
+        return moved;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Connection connection : connections.values()) {
+            connection.close();
+        }
+    }
+
+    private void connect(List<String> shards) throws IOException {
+        for (String shard : shards) {
+            if (!connections.containsKey(shard)) {
+                int colon = shard.lastIndexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("Expected host:port, got " + shard);
+                }
+                String host = shard.substring(0, colon);
+                int port = Integer.parseInt(shard.substring(colon + 1));
+                connections.put(shard, new Connection(host, port, framing));
+            }
+        }
+    }
+
+    private void sendBatch(JsonObject request) throws IOException {
+        JsonArray requests = request.getAsJsonArray("requests");
+        // The operations of each shard, and where their responses go in the whole batch
+        Map<Connection, JsonArray> parts = new LinkedHashMap<>();
+        Map<Connection, List<Integer>> positions = new LinkedHashMap<>();
+        JsonElement[] responses = new JsonElement[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            JsonObject operation = requests.get(i).getAsJsonObject();
+            Set<Connection> shards = shards(operation);
+            if (shards.size() != 1) {
+                responses[i] = JsonParser.parseString(error(CROSS_SHARD));
+                continue;
+            }
+            Connection shard = shards.iterator().next();
+            parts.computeIfAbsent(shard, s -> new JsonArray()).add(operation);
+            positions.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<Connection, JsonArray> part : parts.entrySet()) {
+            // Every part keeps the batch's other fields, such as its durability
+            JsonObject batch = new JsonObject();
+            for (Map.Entry<String, JsonElement> field : request.entrySet()) {
+                batch.add(field.getKey(), field.getKey().equals("requests") ? part.getValue() : field.getValue());
+            }
+            part.getKey().send(batch.toString());
+        }
+
+        pending.add(() -> {
+            for (Map.Entry<Connection, List<Integer>> part : positions.entrySet()) {
+                JsonObject response = JsonParser.parseString(part.getKey().receive()).getAsJsonObject();
+                List<Integer> indexes = part.getValue();
+                JsonArray results = response.getAsJsonArray("responses");
+                for (int j = 0; j < indexes.size(); j++) {
+                    // A batch refused as a whole fails every operation in it
+                    responses[indexes.get(j)] = results != null ? results.get(j) : response;
+                }
+            }
+            JsonObject batch = new JsonObject();
+            batch.addProperty("response", Response.STATUS_OK);
+            JsonArray all = new JsonArray(responses.length);
+            for (JsonElement response : responses) {
+                all.add(response);
+            }
+            batch.add("responses", all);
+            return batch.toString();
+        });
+    }
+
+    /** The shards holding the keys of a request, all of them when it has none. */
+    private Set<Connection> shards(JsonObject request) {
+        Set<Connection> shards = new LinkedHashSet<>();
+        if ("transaction".equals(type(request))) {
+            for (String field : new String[]{"reads", "writes"}) {
+                if (request.has(field) && request.get(field).isJsonArray()) {
+                    for (JsonElement operation : request.getAsJsonArray(field)) {
+                        shards.addAll(shards(operation.getAsJsonObject()));
+                    }
+                }
+            }
+            if (shards.isEmpty()) {
+                shards.add(connections.get(ring.getNodes().get(0)));
+            }
+            return shards;
+        }
+        String top = isFieldRequest(request) ? null : topKey(request.get("key"));
+        if (top == null) {
+            shards.addAll(connections.values());
+        } else {
+            shards.add(connections.get(ring.owner(top)));
+        }
+        return shards;
+    }
+
+    private static String topKey(JsonElement key) {
+        if (key == null || key.isJsonNull()) {
+            return null;
+        }
+        if (key.isJsonPrimitive()) {
+            return key.getAsString();
+        }
+        if (key.isJsonArray() && key.getAsJsonArray().size() > 0 && key.getAsJsonArray().get(0).isJsonPrimitive()) {
+            return key.getAsJsonArray().get(0).getAsString();
+        }
+        return null;
+    }
+
+    /** An index or query request: its key is a field inside every record, on every shard. */
+    private static boolean isFieldRequest(JsonObject request) {
+        return "index".equals(type(request)) || "query".equals(type(request));
+    }
+
+    private static String type(JsonObject request) {
+        JsonElement type = request.get("type");
+        return type != null && type.isJsonPrimitive() ? type.getAsString() : null;
+    }
+
+    /** One response for a request sent to every shard: the first error, or the merged values. */
+    private static String merge(List<Connection> shards) throws IOException {
+        JsonObject merged = null;
+        JsonObject values = new JsonObject();
+        boolean objects = false;
+        String failure = null;
+        for (Connection shard : shards) {
+            // Read every response, even after an error, to keep the connections in step
+            String json = shard.receive();
+            JsonObject response = JsonParser.parseString(json).getAsJsonObject();
+            if (failure == null && !Response.STATUS_OK.equals(response.get("response").getAsString())) {
+                failure = json;
+            }
+            if (merged == null) {
+                merged = response;
+            }
+            JsonElement value = response.get("value");
+            if (value != null && value.isJsonObject()) {
+                objects = true;
+                value.getAsJsonObject().entrySet().forEach(entry -> values.add(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (failure != null) {
+            return failure;
+        }
+        if (objects) {
+            merged.add("value", values);
+        }
+        return merged.toString();
+    }
+
+    /**
+     * The first keys of the pages of every shard. Each page holds the smallest keys of
+     * its shard after the cursor, so these are the smallest keys overall, and the
+     * cursor made from the last one is valid on every shard.
+     */
+    private static String mergeScan(List<Connection> shards, int limit) throws IOException {
+        TreeSet<String> keys = new TreeSet<>();
+        boolean more = false;
+        String failure = null;
+        for (Connection shard : shards) {
+            String json = shard.receive();
+            JsonObject response = JsonParser.parseString(json).getAsJsonObject();
+            if (!Response.STATUS_OK.equals(response.get("response").getAsString())) {
+                failure = failure != null ? failure : json;
+                continue;
+            }
+            JsonObject page = response.getAsJsonObject("value");
+            page.getAsJsonArray("keys").forEach(key -> keys.add(key.getAsString()));
+            more |= page.has("cursor");
+        }
+        if (failure != null) {
+            return failure;
+        }
+        JsonArray first = new JsonArray();
+        String last = null;
+        for (String key : keys) {
+            if (first.size() == limit) {
+                more = true;
+                break;
+            }
+            first.add(key);
+            last = key;
+        }
+        JsonObject page = new JsonObject();
+        page.add("keys", first);
+        if (more && last != null) {
+            page.addProperty("cursor", ScanCommand.encode(last));
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("response", Response.STATUS_OK);
+        response.add("value", page);
+        return response.toString();
+    }
+
+    /**
+     * The matches of a query on every shard, sorted by key as a single server sorts
+     * them, or for an index request every field indexed on some shard.
+     */
+    private static String mergeFieldResults(List<Connection> shards, boolean query) throws IOException {
+        List<JsonElement> values = new ArrayList<>();
+        String failure = null;
+        for (Connection shard : shards) {
+            String json = shard.receive();
+            JsonObject response = JsonParser.parseString(json).getAsJsonObject();
+            if (!Response.STATUS_OK.equals(response.get("response").getAsString())) {
+                failure = failure != null ? failure : json;
+                continue;
+            }
+            for (JsonElement value : response.getAsJsonArray("value")) {
+                if (query || !values.contains(value)) {
+                    values.add(value);
+                }
+            }
+        }
+        if (failure != null) {
+            return failure;
+        }
+        if (query) {
+            values.sort(Comparator.comparing(ShardedClient::matchKey));
+        }
+        JsonArray merged = new JsonArray(values.size());
+        values.forEach(merged::add);
+        JsonObject response = new JsonObject();
+        response.addProperty("response", Response.STATUS_OK);
+        response.add("value", merged);
+        return response.toString();
+    }
+
+    /** The key of a query match: the match itself, or its "key" when projected. */
+    private static String matchKey(JsonElement match) {
+        return match.isJsonObject() ? match.getAsJsonObject().get("key").getAsString() : match.getAsString();
+    }
+
+    private static void pipeline(List<Map.Entry<Connection, String>> requests) throws IOException {
+        for (int from = 0; from < requests.size(); from += REBALANCE_WINDOW) {
+            List<Map.Entry<Connection, String>> window = requests.subList(from, Math.min(from + REBALANCE_WINDOW, requests.size()));
+            Set<Connection> used = new LinkedHashSet<>();
+            for (Map.Entry<Connection, String> request : window) {
+                request.getKey().send(request.getValue());
+                used.add(request.getKey());
+            }
+            for (Connection connection : used) {
+                connection.flush();
+            }
+            for (Map.Entry<Connection, String> request : window) {
+                check(JsonParser.parseString(request.getKey().receive()).getAsJsonObject());
+            }
+        }
+    }
+
+    private static void check(JsonObject response) throws IOException {
+        if (!Response.STATUS_OK.equals(response.get("response").getAsString())) {
+            throw new IOException("Rebalance failed: " + response);
+        }
+    }
+
+    private static String error(String reason) {
+        Response response = new Response();
+        response.setResponse(Response.STATUS_ERROR);
+        response.setReason(reason);
+        return response.toJSON();
+    }
+}
@@ -0,0 +1,50 @@
+package client;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The blocking {@link Client} calls on top of an {@link AsyncClient}, for code written
+ * against a single connection. Requests sent back-to-back may travel over different
+ * pooled connections; {@link #receive} still returns their responses in order.
+ */
+public class SyncClient implements Client {
+
+    private final AsyncClient client;
+    private final Queue<CompletableFuture<String>> sent = new ConcurrentLinkedQueue<>();
+
+    public SyncClient(AsyncClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public void send(String request) {
+        sent.add(client.request(request));
+    }
+
+    @Override
+    public void flush() {
+        // Requests are written as soon as they are sent
+    }
+
+    @Override
+    public String receive() throws IOException {
+        CompletableFuture<String> next = sent.poll();
+        if (next == null) {
+            throw new IllegalStateException("No request in flight");
+        }
+        try {
+            return next.join();
+        } catch (CompletionException e) {
+            throw AsyncClient.unwrap(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
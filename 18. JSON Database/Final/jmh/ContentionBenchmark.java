@@ -0,0 +1,109 @@
+package jmh;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.database.Database;
+import server.database.locks.GlobalLocks;
+import server.database.locks.StripedLocks;
+import server.database.persistence.MemoryPersistence;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readers and writers at the same time, global lock against striped locks, and
+ * against the single-writer pipeline (striped locks, writes on one thread, gets
+ * without a lock). With one key every thread meets on the same lock; with many
+ * they mostly do not. The groups differ in their read/write mix.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ContentionBenchmark {
+
+    @Param({"global", "striped", "pipeline"})
+    String locking;
+
+    @Param({"1", "10000"})
+    int keys;
+
+    @Param({"1", "3"})
+    int depth;
+
+    private JsonElement[] paths;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Database db = Database.INSTANCE;
+        db.setPersistence(new MemoryPersistence());
+        db.setLocks("global".equals(locking) ? new GlobalLocks() : new StripedLocks(64));
+        if ("pipeline".equals(locking)) {
+            db.setWritePipeline(1024);
+        }
+        db.init();
+        paths = Keys.paths(keys, depth);
+        for (JsonElement key : paths) {
+            db.set(key.deepCopy(), new JsonPrimitive(0));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Database.INSTANCE.close();
+    }
+
+    @Benchmark
+    @Group("mostlyReads")
+    @GroupThreads(3)
+    public JsonElement mostlyReadsGet() {
+        return get();
+    }
+
+    @Benchmark
+    @Group("mostlyReads")
+    @GroupThreads(1)
+    public void mostlyReadsSet() {
+        set();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public JsonElement mixedGet() {
+        return get();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void mixedSet() {
+        set();
+    }
+
+    private JsonElement get() {
+        return Database.INSTANCE.get(paths[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+
+    private void set() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Database.INSTANCE.set(paths[random.nextInt(keys)].deepCopy(), new JsonPrimitive(random.nextInt()));
+    }
+}
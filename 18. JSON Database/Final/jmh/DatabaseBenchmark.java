@@ -0,0 +1,95 @@
+package jmh;
+
+import com.google.gson.JsonElement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.database.Database;
+import server.database.locks.GlobalLocks;
+import server.database.persistence.MemoryPersistence;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded get, set and delete on the in-memory database, by key depth and
+ * value size. A path index of 0 makes every nested get walk the tree (findElement).
+ *
+ * The benchmarks of this package need JMH: compile them with the server sources, Gson,
+ * jmh-core and the jmh-generator-annprocess processor, then run org.openjdk.jmh.Main,
+ * e.g. {@code org.openjdk.jmh.Main DatabaseBenchmark -p depth=3}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatabaseBenchmark {
+
+    private static final int KEYS = 10_000;
+
+    @Param({"1", "3", "6"})
+    int depth;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    @Param({"0", "100000"})
+    int pathIndexSize;
+
+    private JsonElement[] keys;
+    private JsonElement value;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Database db = Database.INSTANCE;
+        db.setPersistence(new MemoryPersistence());
+        db.setLocks(new GlobalLocks());
+        db.setPathIndexSize(pathIndexSize);
+        db.init();
+        keys = Keys.paths(KEYS, depth);
+        value = Keys.value(valueSize);
+        for (JsonElement key : keys) {
+            db.set(key.deepCopy(), value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Database.INSTANCE.close();
+    }
+
+    @Benchmark
+    public JsonElement get() {
+        return Database.INSTANCE.get(nextKey());
+    }
+
+    @Benchmark
+    public void set() {
+        Database.INSTANCE.set(nextKey().deepCopy(), value);
+    }
+
+    /** A delete cannot repeat on its own: subtract {@link #set} for the delete alone. */
+    @Benchmark
+    public void deleteAndSet() {
+        JsonElement key = nextKey();
+        Database.INSTANCE.delete(key.deepCopy());
+        Database.INSTANCE.set(key.deepCopy(), value);
+    }
+
+    private JsonElement nextKey() {
+        next = next + 1 < KEYS ? next + 1 : 0;
+        return keys[next];
+    }
+}
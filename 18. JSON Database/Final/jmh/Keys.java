@@ -0,0 +1,36 @@
+package jmh;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/** Keys and values shared by the benchmarks. */
+final class Keys {
+
+    private Keys() {}
+
+    /**
+     * Key {@code k} at the given depth: "key7" at depth 1, ["key7","level1","level2"] at 3.
+     * Set and delete consume array keys, so callers pass a copy of these.
+     */
+    static JsonElement[] paths(int count, int depth) {
+        JsonElement[] keys = new JsonElement[count];
+        for (int k = 0; k < count; k++) {
+            if (depth <= 1) {
+                keys[k] = new JsonPrimitive("key" + k);
+            } else {
+                JsonArray path = new JsonArray();
+                path.add("key" + k);
+                for (int d = 1; d < depth; d++) {
+                    path.add("level" + d);
+                }
+                keys[k] = path;
+            }
+        }
+        return keys;
+    }
+
+    static JsonElement value(int size) {
+        return new JsonPrimitive("x".repeat(size));
+    }
+}
@@ -0,0 +1,102 @@
+package jmh;
+
+import com.google.gson.JsonElement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.database.Database;
+import server.database.locks.GlobalLocks;
+import server.database.persistence.FilePersistence;
+import server.database.persistence.MemoryPersistence;
+import server.database.persistence.Persistence;
+import server.database.persistence.SnapshotPersistence;
+import server.database.persistence.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A set including its way to disk, for each storage engine, on a database of the
+ * given number of keys. File storage rewrites everything per set, so its cost grows
+ * with the database; wal waits for the fsync of its batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+
+    @Param({"memory", "file", "snapshot", "wal"})
+    String storage;
+
+    @Param({"100", "10000"})
+    int keys;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    private Path directory;
+    private JsonElement[] paths;
+    private JsonElement value;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("db-bench");
+        Path file = directory.resolve("db.json");
+        Database db = Database.INSTANCE;
+        db.setPersistence(persistence(file));
+        db.setLocks(new GlobalLocks());
+        db.init();
+        paths = Keys.paths(keys, 1);
+        value = Keys.value(valueSize);
+        for (JsonElement key : paths) {
+            db.set(key, value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Database.INSTANCE.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void set() {
+        next = next + 1 < keys ? next + 1 : 0;
+        Database.INSTANCE.set(paths[next], value);
+    }
+
+    private Persistence persistence(Path file) {
+        switch (storage) {
+            case "memory":
+                return new MemoryPersistence();
+            case "file":
+                return new FilePersistence(file);
+            case "snapshot":
+                return new SnapshotPersistence(file, 1000);
+            case "wal":
+                return new WriteAheadLog(directory.resolve("wal"), file, 64L * 1024 * 1024);
+            default:
+                throw new IllegalArgumentException("Unknown storage: " + storage);
+        }
+    }
+}
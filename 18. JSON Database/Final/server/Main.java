@@ -2,39 +2,148 @@
 
 package server;
 
-import com.google.gson.Gson;
+import com.beust.jcommander.JCommander;
 import com.google.gson.JsonArray;
-import server.cli.CommandExecutor;
-import server.cli.commands.DeleteCommand;
-import server.cli.commands.GetCommand;
-import server.cli.commands.SetCommand;
+import server.cli.Admission;
+import server.cli.RequestProcessor;
+import server.cli.ResponseCache;
+import server.cli.ServerArgs;
+import server.cli.Subscription;
+import server.cli.WatchRegistry;
 import server.cli.requests.Request;
+import server.cli.requests.RequestReader;
 import server.cli.requests.Response;
+import server.cli.requests.ResponseWriter;
 import server.database.Database;
-import server.exceptions.NoSuchRequestException;
+import server.database.KeyPath;
+import server.database.locks.GlobalLocks;
+import server.database.locks.KeyLocks;
+import server.database.locks.StripedLocks;
+import server.database.persistence.Durability;
+import server.database.persistence.FilePersistence;
+import server.database.persistence.MemoryPersistence;
+import server.database.persistence.Persistence;
+import server.database.persistence.SnapshotPersistence;
+import server.database.persistence.WriteAheadLog;
+import server.net.CountingInputStream;
+import server.net.CountingOutputStream;
+import server.net.Framing;
+import server.replication.Replica;
+import server.replication.Replication;
+import server.replication.ReplicationLog;
+import server.stats.Stats;
+import server.net.NioServer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.Writer;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 public class Main {
 
     private static final String ADDRESS = "127.0.0.1";
-    private static final int PORT = 8000;
+    private static final int REJECT_QUEUE_SIZE = 64;
+    private static final int REJECT_TIMEOUT_MILLIS = 1000;
 
     public static void main(String[] args) throws IOException {
 
-        ServerSocket server = new ServerSocket(PORT, 50, InetAddress.getByName(ADDRESS));
+        ServerArgs serverArgs = new ServerArgs();
+        JCommander.newBuilder()
+                .addObject(serverArgs)
+                .build()
+                .parse(args);
+
+        if (serverArgs.getReplicaOf() != null) {
+            // A replica keeps nothing on disk: it copies the primary again whenever it connects
+            Database.INSTANCE.setPersistence(new MemoryPersistence());
+            Database.INSTANCE.setReadOnly(true);
+            Replication.INSTANCE.setReplica(new Replica(parseAddress(serverArgs.getReplicaOf()), serverArgs.getFraming()));
+        } else {
+            ReplicationLog log = new ReplicationLog(createPersistence(serverArgs), serverArgs.getReplicationQueueSize());
+            Database.INSTANCE.setPersistence(log);
+            Replication.INSTANCE.setPrimary(log);
+        }
+        Database.INSTANCE.setDurability(serverArgs.getDurability() != null
+                ? Durability.of(serverArgs.getDurability()) : defaultDurability(serverArgs));
+        Database.INSTANCE.setLocks(createLocks(serverArgs));
+        Database.INSTANCE.setPathIndexSize(serverArgs.getPathIndexSize());
+        Database.INSTANCE.setWritePipeline(serverArgs.getWritePipeline());
+        Database.INSTANCE.setLazyLoadThreshold(serverArgs.getLazyLoadBytes());
+        ResponseCache.INSTANCE.configure(serverArgs.getResponseCacheSize());
+        WatchRegistry.INSTANCE.configure(serverArgs.getWatchQueueSize(), serverArgs.getWatchOverflow());
+        Admission.INSTANCE.configure(serverArgs.getMaxInFlight());
+        Stats.INSTANCE.startDump(serverArgs.getStatsIntervalMillis());
+        for (String field : serverArgs.getIndexes()) {
+            JsonArray path = new JsonArray();
+            for (String name : field.split("\\.")) {
+                path.add(name);
+            }
+            Database.INSTANCE.createIndex(KeyPath.of(path));
+        }
+
+        switch (serverArgs.getMode()) {
+            case "thread":
+                runThreadPerConnection(serverArgs);
+                break;
+            case "nio":
+                NioServer nioServer = new NioServer(new InetSocketAddress(InetAddress.getByName(ADDRESS), serverArgs.getPort()),
+                        serverArgs.getFraming(), serverArgs.getMaxConnections(), serverArgs.getWorkers(),
+                        serverArgs.getMaxPipelined());
+                System.out.println("Server started!");
+                Database.INSTANCE.init();
+                Replication.INSTANCE.start();
+                nioServer.run();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + serverArgs.getMode());
+        }
+
+        Replication.INSTANCE.stop();
+        Database.INSTANCE.close();
+    }
+
+    private static InetSocketAddress parseAddress(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Expected host:port, got " + hostAndPort);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+
+    private static void runThreadPerConnection(ServerArgs serverArgs) throws IOException {
+        ServerSocket server = new ServerSocket(serverArgs.getPort(), 50, InetAddress.getByName(ADDRESS));
         System.out.println("Server started!");
         Database.INSTANCE.init();
+        Replication.INSTANCE.start();
 
         //Это вероятно будет ненужно
         JsonArray datalist = new JsonArray();
 
+        int maxConnections = serverArgs.getMaxConnections();
+        Semaphore permits = maxConnections > 0 ? new Semaphore(maxConnections) : null;
+        int maxThreads = serverArgs.getMaxThreads();
+        Semaphore threads = maxThreads > 0 ? new Semaphore(maxThreads) : null;
+        // One thread answers the connections beyond maxThreads; when it falls behind, so does accepting
+        ThreadPoolExecutor rejections = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(REJECT_QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
+        Framing framing = serverArgs.getFraming();
+
         /*
         https://www.geeksforgeeks.org/introducing-threads-socket-programming-java/
         */
@@ -45,15 +154,25 @@ public class Main {
 
             try
             {
+                if (permits != null) {
+                    permits.acquire();
+                }
+
                 // socket object to receive incoming client requests
                 s = server.accept();
 
+                if (threads != null && !threads.tryAcquire()) {
+                    Socket rejected = s;
+                    rejections.execute(() -> reject(rejected, framing, permits));
+                    continue;
+                }
+
                 // obtaining input and out streams
-                DataInputStream dis = new DataInputStream(s.getInputStream());
-                DataOutputStream dos = new DataOutputStream(s.getOutputStream());
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new CountingInputStream(s.getInputStream())));
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new CountingOutputStream(s.getOutputStream())));
 
                 // create a new thread object
-                Thread t = new ClientHandler(s, dis, dos, server);
+                Thread t = new ClientHandler(s, dis, dos, server, framing, serverArgs.isKeepAlive(), permits, threads);
 
                 // Invoking the start() method
                 t.start();
@@ -63,6 +182,72 @@ public class Main {
                 server.close();
             }
         }
+        rejections.shutdown();
+    }
+
+    /**
+     * Answers the first request of a connection the server has no thread for with
+     * "Overloaded" and closes it. The request is read first: closing a socket with
+     * unread input resets it, and the client could lose the response.
+     */
+    private static void reject(Socket s, Framing framing, Semaphore permits) {
+        Stats.INSTANCE.requestRejected();
+        try (s) {
+            s.setSoTimeout(REJECT_TIMEOUT_MILLIS);
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            framing.read(dis);
+            framing.write(dos, new ResponseWriter().write(Admission.overloaded()));
+            dos.flush();
+        } catch (IOException e) {
+            // Sent nothing in time or went away: there is nobody to answer
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    private static KeyLocks createLocks(ServerArgs args) {
+        switch (args.getLocking()) {
+            case "global":
+                return new GlobalLocks();
+            case "striped":
+                if ("file".equals(args.getStorage())) {
+                    // File storage serializes the whole database on every write
+                    throw new IllegalArgumentException("Striped locking needs snapshot, wal or memory storage");
+                }
+                return new StripedLocks(args.getLockStripes());
+            default:
+                throw new IllegalArgumentException("Unknown locking: " + args.getLocking());
+        }
+    }
+
+    private static Durability defaultDurability(ServerArgs args) {
+        switch (args.getStorage()) {
+            case "memory":
+                return Durability.NONE;
+            case "snapshot":
+                return Durability.ASYNC;
+            default:
+                return Durability.SYNC;
+        }
+    }
+
+    private static Persistence createPersistence(ServerArgs args) {
+        switch (args.getStorage()) {
+            case "file":
+                return new FilePersistence(Paths.get(args.getDatabase()));
+            case "memory":
+                return new MemoryPersistence();
+            case "snapshot":
+                return new SnapshotPersistence(Paths.get(args.getDatabase()), args.getSnapshotIntervalMillis());
+            case "wal":
+                return new WriteAheadLog(Paths.get(args.getWalDir()), Paths.get(args.getDatabase()),
+                        args.getWalCheckpointBytes());
+            default:
+                throw new IllegalArgumentException("Unknown storage: " + args.getStorage());
+        }
     }
 }
 
@@ -70,78 +255,148 @@ public class Main {
 class ClientHandler extends Thread
 {
 
+    private static final int PEEK_TIMEOUT_MILLIS = 10;
+
     final DataInputStream dis;
     final DataOutputStream dos;
     final Socket s;
     private final ServerSocket server;
+    private final Framing framing;
+    private final boolean keepAlive;
+    private final Semaphore permits;
+    private final Semaphore threads;
     private boolean flag = false;
 
     // Constructor
-    public ClientHandler(Socket s, DataInputStream dis, DataOutputStream dos, ServerSocket server)
+    public ClientHandler(Socket s, DataInputStream dis, DataOutputStream dos, ServerSocket server,
+                         Framing framing, boolean keepAlive, Semaphore permits, Semaphore threads)
     {
         this.s = s;
         this.dis = dis;
         this.dos = dos;
         this.server = server;
+        this.framing = framing;
+        this.keepAlive = keepAlive;
+        this.permits = permits;
+        this.threads = threads;
     }
 
     @Override
     public void run() {
 
-        final CommandExecutor executor = new CommandExecutor();
-
-        while (!flag)
-        {
-            try {
-                Request request = new Gson().fromJson(dis.readUTF(), Request.class);
-                Response response = new Response();
+        final RequestProcessor processor = new RequestProcessor();
+        final ResponseWriter writer = new ResponseWriter();
+        Stats.INSTANCE.connectionOpened();
 
+        try {
+            while (!flag)
+            {
                 try {
-                    switch (request.getType()) {
-                        case "get":
-                            GetCommand getCmd = new GetCommand(request.getKey());
-                            executor.executeCommand(getCmd);
-                            //response.setValue(getCmd.getResult().getAsString());
-                            response.setValue(getCmd.getResult().toString());
-                            break;
-                        case "set":
-                            SetCommand setCmd = new SetCommand(request.getKey(), request.getValue());
-                            executor.executeCommand(setCmd);
-                            break;
-                        case "delete":
-                            DeleteCommand deleteCmd = new DeleteCommand(request.getKey());
-                            executor.executeCommand(deleteCmd);
-                            break;
-                        case "exit":
-                            response.setResponse(Response.STATUS_OK);
-                            dos.writeUTF(response.toJSON());
-                            server.close();
-                            return;
-                        default:
-                            throw new NoSuchRequestException();
+                    Request request = RequestReader.read(framing.read(dis));
+                    boolean admitted = Admission.INSTANCE.tryAcquire();
+                    Response response;
+                    try {
+                        response = admitted ? processor.process(request) : Admission.overloaded();
+                    } finally {
+                        if (admitted) {
+                            Admission.INSTANCE.release();
+                        }
+                    }
+                    try (Writer message = framing.writer(dos)) {
+                        writer.write(response, message);
+                    } catch (UTFDataFormatException e) {
+                        // Too long for writeUTF: nothing was written yet, so report it instead
+                        framing.write(dos, writer.write(RequestProcessor.error(e)));
                     }
-                    response.setResponse(Response.STATUS_OK);
+                    dos.flush();
+
+                    Subscription subscription = processor.takeSubscription();
+                    if (subscription != null) {
+                        stream(subscription);
+                    }
+                    if (admitted && RequestProcessor.isExit(request)) {
+                        server.close();
+                        return;
+                    }
+                    flag = !keepAlive;
                 }
-                catch (Exception e) {
-                    response.setResponse(Response.STATUS_ERROR);
-                    response.setReason(e.getMessage());
+                catch (EOFException e) {
+                    // Client closed a persistent connection
+                    flag = true;
                 }
-                finally {
-                    dos.writeUTF(response.toJSON());
+                catch (Exception e) {
                     flag = true;
+                    e.printStackTrace();
                 }
-
             }
-            catch (Exception e) {
-                try {
-                    dis.close();
-                    dos.close();
-                    s.close();
-                } catch (IOException ioException) {
-                    ioException.printStackTrace();
+        } finally {
+            try {
+                dis.close();
+                dos.close();
+                s.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+            Stats.INSTANCE.connectionClosed();
+            if (permits != null) {
+                permits.release();
+            }
+            if (threads != null) {
+                threads.release();
+            }
+        }
+    }
+
+    /**
+     * Sends the events of a watch until the subscription ends or the client goes away.
+     * The connection carries nothing else meanwhile, so while no events come the
+     * client is checked for end of stream every second: a quiet watch must not hold
+     * its thread after the client closed the connection.
+     */
+    private void stream(Subscription subscription) throws IOException, InterruptedException {
+        try {
+            while (!subscription.isFinished()) {
+                String event = subscription.poll(1, TimeUnit.SECONDS);
+                if (event == null) {
+                    if (clientClosed()) {
+                        return;
+                    }
+                    continue;
                 }
+                do {
+                    framing.write(dos, event);
+                } while ((event = subscription.poll()) != null);
+                dos.flush();
+            }
+        } finally {
+            subscription.close();
+        }
+    }
 
-                e.printStackTrace();
+    /**
+     * Whether the client closed or reset the connection. Peeks at the input with a
+     * short timeout; anything the client did send stays buffered for the next read.
+     */
+    private boolean clientClosed() throws IOException {
+        if (dis.available() > 0) {
+            return false;
+        }
+        int timeout = s.getSoTimeout();
+        try {
+            s.setSoTimeout(PEEK_TIMEOUT_MILLIS);
+            dis.mark(1);
+            if (dis.read() < 0) {
+                return true;
+            }
+            dis.reset();
+            return false;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (SocketException e) {
+            return true;
+        } finally {
+            if (!s.isClosed()) {
+                s.setSoTimeout(timeout);
             }
         }
     }
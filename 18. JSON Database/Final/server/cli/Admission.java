@@ -0,0 +1,49 @@
+package server.cli;
+
+import server.cli.requests.Response;
+import server.exceptions.OverloadedException;
+import server.stats.Stats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the requests the server works on at once, over all connections: those
+ * executing and those waiting for a worker. A request beyond the limit is not
+ * queued but answered at once with an "Overloaded" error, so that a burst costs
+ * the clients a retry instead of making every request wait behind it.
+ */
+public enum Admission {
+
+    INSTANCE;
+
+    private volatile int limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    Admission() {
+        Stats.INSTANCE.queue("inFlight", inFlight::get);
+    }
+
+    /** Sets the limit, 0 for none. Call once, before serving requests. */
+    public void configure(int maxInFlight) {
+        this.limit = maxInFlight;
+    }
+
+    /** Admits a request, unless the server is full; an admitted request must be {@link #release}d. */
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > limit && limit > 0) {
+            inFlight.decrementAndGet();
+            Stats.INSTANCE.requestRejected();
+            return false;
+        }
+        return true;
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /** The response to a request that was not admitted. */
+    public static Response overloaded() {
+        return RequestProcessor.error(new OverloadedException());
+    }
+}
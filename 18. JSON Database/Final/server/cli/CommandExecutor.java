@@ -1,9 +1,15 @@
 package server.cli;
 
 import server.cli.commands.Command;
+import server.stats.Stats;
 
 public class CommandExecutor {
     public void executeCommand(Command command) {
-        command.execute();
+        long start = System.nanoTime();
+        try {
+            command.execute();
+        } finally {
+            Stats.INSTANCE.command(command.getClass(), System.nanoTime() - start);
+        }
     }
 }
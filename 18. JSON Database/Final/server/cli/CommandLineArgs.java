@@ -3,15 +3,21 @@ package server.cli;
 import com.beust.jcommander.Parameter;
 import com.google.gson.Gson;
 import com.google.gson.annotations.Expose;
+import server.net.BinaryFraming;
+import server.net.Framing;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class CommandLineArgs {
 
+    private static final String DATA_DIR = "C:\\Users\\dodge\\IdeaProjects\\JSON Database\\JSON Database\\task\\src\\client\\data\\";
+
     @Expose
     @Parameter(
             names = {"-t", "--type"},
@@ -39,6 +45,74 @@ public class CommandLineArgs {
             order = 3)
     public String filename;
 
+    @Parameter(
+            names = {"-b", "--batch-file"},
+            description = "File with one json request per line, sent over a single connection",
+            order = 4)
+    public String batchFile;
+
+    @Parameter(
+            names = {"-bs", "--batch-size"},
+            description = "Operations per batch request, 1 pipelines the requests one by one",
+            order = 5)
+    public int batchSize = 100;
+
+    @Parameter(
+            names = {"-f", "--framing"},
+            description = "Message framing, must match the server: utf or binary",
+            order = 6)
+    public String framing = "utf";
+
+    @Expose
+    @Parameter(
+            names = {"-e", "--expected"},
+            description = "Expected current value for a cas request",
+            order = 7)
+    public String expected;
+
+    @Expose
+    @Parameter(
+            names = {"--ttl"},
+            description = "Milliseconds after which the value set expires",
+            order = 8)
+    public String ttl;
+
+    @Parameter(
+            names = {"-p", "--port"},
+            description = "Server port",
+            order = 9)
+    public int port = 8000;
+
+    @Parameter(
+            names = {"--shards"},
+            description = "Comma-separated host:port list; top-level keys are spread over these servers",
+            order = 10)
+    public List<String> shards;
+
+    @Parameter(
+            names = {"--virtual-nodes"},
+            description = "Points of each shard on the consistent-hash ring",
+            order = 11)
+    public int virtualNodes = 160;
+
+    @Parameter(
+            names = {"--rebalance-from"},
+            description = "The previous shard list: moves the keys whose shard changed, then runs the request if any",
+            order = 12)
+    public List<String> rebalanceFrom;
+
+    @Parameter(
+            names = {"--pool-size"},
+            description = "Persistent connections shared by pipelined requests, 0 for a single plain connection",
+            order = 13)
+    public int poolSize = 0;
+
+    @Parameter(
+            names = {"--timeout"},
+            description = "Milliseconds to wait for a response with --pool-size",
+            order = 14)
+    public long timeoutMillis = 5000;
+
     public String getType() {
         return type;
     }
@@ -71,6 +145,47 @@ public class CommandLineArgs {
         this.filename = filename;
     }
 
+    public String getBatchFile() {
+        return batchFile;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public List<String> getShards() {
+        return shards;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public List<String> getRebalanceFrom() {
+        return rebalanceFrom;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public Framing getFraming() {
+        return Framing.of(framing, BinaryFraming.DEFAULT_CHUNK_SIZE);
+    }
+
+    /** Absolute paths are used as they are, relative ones are looked up in the client data folder. */
+    public Path getBatchPath() {
+        return Paths.get(DATA_DIR).resolve(batchFile);
+    }
+
     private String readFromFile(String path) throws IOException {
         return new String(Files.readAllBytes(Paths.get(path)));
     }
@@ -78,7 +193,7 @@ public class CommandLineArgs {
     public String toJson() {
         if (filename != null) {
             try {
-                return readFromFile("C:\\Users\\dodge\\IdeaProjects\\JSON Database\\JSON Database\\task\\src\\client\\data\\" + filename);
+                return readFromFile(DATA_DIR + filename);
             } catch (IOException e) {
                 System.out.println("Cannot read file: " + e.getMessage());
                 System.exit(1);
@@ -89,6 +204,8 @@ public class CommandLineArgs {
         map.put("type", type);
         map.put("key",key);
         map.put("value",value);
+        map.put("expected", expected);
+        map.put("ttl", ttl);
         return new Gson().toJson(map);
     }
 }
@@ -0,0 +1,217 @@
+package server.cli;
+
+import server.cli.commands.AppendCommand;
+import server.cli.commands.BatchCommand;
+import server.cli.commands.CompareAndSetCommand;
+import server.cli.commands.DeleteCommand;
+import server.cli.commands.GetCommand;
+import server.cli.commands.IncrementCommand;
+import server.cli.commands.IndexCommand;
+import server.cli.commands.MergePatchCommand;
+import server.cli.commands.QueryCommand;
+import server.cli.commands.ScanCommand;
+import server.cli.commands.SetCommand;
+import server.cli.commands.TransactionCommand;
+import server.cli.requests.Request;
+import server.cli.requests.Response;
+import server.database.Database;
+import server.database.KeyPath;
+import server.database.persistence.Durability;
+import server.replication.Replication;
+import server.stats.Stats;
+import server.exceptions.NoSuchKeyException;
+import server.exceptions.NoSuchRequestException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a request into commands and the commands' outcome into a response.
+ * Shared by every connection model of the server.
+ */
+public class RequestProcessor {
+
+    public static final String EXIT = "exit";
+    public static final String WATCH = "watch";
+
+    private final CommandExecutor executor = new CommandExecutor();
+    // Started by the last watch request, until the connection picks it up
+    private Subscription subscription;
+
+    public static boolean isExit(Request request) {
+        return EXIT.equals(request.getType());
+    }
+
+    /** The subscription started by the request just processed, or null. */
+    public Subscription takeSubscription() {
+        Subscription started = subscription;
+        subscription = null;
+        return started;
+    }
+
+    public Response process(Request request) {
+        return process(request, ResponseCache.INSTANCE.isEnabled());
+    }
+
+    /** Runs the request with the durability it asks for, if any; operations of a batch inherit the batch's. */
+    private Response process(Request request, boolean cacheable) {
+        if (request.getDurability() == null) {
+            return execute(request, cacheable);
+        }
+        Durability level;
+        try {
+            level = Durability.of(request.getDurability());
+        } catch (IllegalArgumentException e) {
+            return error(new NoSuchRequestException());
+        }
+        Durability outer = Database.INSTANCE.useDurability(level);
+        try {
+            return execute(request, cacheable);
+        } finally {
+            Database.INSTANCE.useDurability(outer);
+        }
+    }
+
+    private Response execute(Request request, boolean cacheable) {
+        Response response = new Response();
+        try {
+            switch (request.getType()) {
+                case "get":
+                    if (cacheable && !request.isVersioned() && !isWholeDatabase(request)) {
+                        return cachedGet(request);
+                    }
+                    GetCommand getCmd = new GetCommand(request.getKey(), request.isVersioned());
+                    executor.executeCommand(getCmd);
+                    //response.setValue(getCmd.getResult().getAsString());
+                    response.setValue(getCmd.getResult());
+                    response.setVersion(getCmd.getVersion());
+                    break;
+                case "set":
+                    if (request.getTtl() != null && request.getTtl() <= 0) {
+                        throw new NoSuchRequestException();
+                    }
+                    SetCommand setCmd = new SetCommand(request.getKey(), request.getValue(),
+                            request.getTtl() != null ? request.getTtl() : 0);
+                    executor.executeCommand(setCmd);
+                    break;
+                case "delete":
+                    DeleteCommand deleteCmd = new DeleteCommand(request.getKey());
+                    executor.executeCommand(deleteCmd);
+                    break;
+                case "cas":
+                    CompareAndSetCommand casCmd = new CompareAndSetCommand(request.getKey(), request.getExpected(), request.getValue());
+                    executor.executeCommand(casCmd);
+                    break;
+                case "increment":
+                    IncrementCommand incrementCmd = new IncrementCommand(request.getKey(), request.getValue());
+                    executor.executeCommand(incrementCmd);
+                    response.setValue(incrementCmd.getResult());
+                    break;
+                case "append":
+                    AppendCommand appendCmd = new AppendCommand(request.getKey(), request.getValue());
+                    executor.executeCommand(appendCmd);
+                    break;
+                case "merge":
+                    MergePatchCommand mergeCmd = new MergePatchCommand(request.getKey(), request.getValue());
+                    executor.executeCommand(mergeCmd);
+                    break;
+                case "transaction":
+                    TransactionCommand transactionCmd = new TransactionCommand(request.getReads(), request.getWrites());
+                    executor.executeCommand(transactionCmd);
+                    break;
+                case "index":
+                    IndexCommand indexCmd = new IndexCommand(request.getKey());
+                    executor.executeCommand(indexCmd);
+                    response.setValue(indexCmd.getResult());
+                    break;
+                case "query":
+                    QueryCommand queryCmd = new QueryCommand(request.getKey(), request.getValue(), request.getProject());
+                    executor.executeCommand(queryCmd);
+                    response.setValue(queryCmd.getResult());
+                    break;
+                case "scan":
+                    ScanCommand scanCmd = new ScanCommand(request.getPrefix(), request.getFrom(), request.getTo(),
+                            request.getCursor(), request.getLimit());
+                    executor.executeCommand(scanCmd);
+                    response.setValue(scanCmd.getResult());
+                    break;
+                case "batch":
+                    if (request.getRequests() == null) {
+                        throw new NoSuchRequestException();
+                    }
+                    List<Response> responses = new ArrayList<>();
+                    BatchCommand batchCmd = new BatchCommand(() -> {
+                        for (Request operation : request.getRequests()) {
+                            boolean allowed = !isExit(operation) && !WATCH.equals(operation.getType())
+                                    && !"replicate".equals(operation.getType());
+                            responses.add(allowed ? process(operation, false) : error(new NoSuchRequestException()));
+                        }
+                    });
+                    executor.executeCommand(batchCmd);
+                    response.setResponses(responses);
+                    break;
+                case WATCH:
+                    if (request.getKey() == null) {
+                        throw new NoSuchKeyException();
+                    }
+                    subscription = WatchRegistry.INSTANCE.subscribe(KeyPath.of(request.getKey()));
+                    break;
+                case "replicate":
+                    response.setValue(Replication.INSTANCE.subscribe(started -> subscription = started));
+                    break;
+                case "replication":
+                    response.setValue(Replication.INSTANCE.status());
+                    break;
+                case "stats":
+                    response.setValue(Stats.INSTANCE.toJson());
+                    break;
+                case EXIT:
+                    break;
+                default:
+                    throw new NoSuchRequestException();
+            }
+            response.setResponse(Response.STATUS_OK);
+        }
+        catch (Exception e) {
+            return error(e);
+        }
+        return response;
+    }
+
+    /** A get answered from, or stored into, the serialized response cache. */
+    private Response cachedGet(Request request) {
+        long start = System.nanoTime();
+        ResponseCache cache = ResponseCache.INSTANCE;
+        KeyPath path = KeyPath.of(request.getKey());
+        if (Database.INSTANCE.hasTtl(path)) {
+            // Could expire before the expiry removes it from the cache
+            return process(request, false);
+        }
+        String json = cache.get(path);
+        if (json == null) {
+            long stamp = cache.stamp(path);
+            GetCommand getCmd = new GetCommand(request.getKey());
+            executor.executeCommand(getCmd);
+            Response response = new Response();
+            response.setResponse(Response.STATUS_OK);
+            response.setValue(getCmd.getResult());
+            json = response.toJSON();
+            cache.put(path, json, stamp);
+        } else {
+            // A hit runs no command: count it among the gets all the same
+            Stats.INSTANCE.command(GetCommand.class, System.nanoTime() - start);
+        }
+        return Response.serialized(json);
+    }
+
+    private static boolean isWholeDatabase(Request request) {
+        return request.getKey() != null && request.getKey().isJsonArray() && request.getKey().getAsJsonArray().size() == 0;
+    }
+
+    public static Response error(Exception e) {
+        Response response = new Response();
+        response.setResponse(Response.STATUS_ERROR);
+        response.setReason(e.getMessage());
+        return response;
+    }
+}
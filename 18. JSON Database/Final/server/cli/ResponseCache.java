@@ -0,0 +1,193 @@
+package server.cli;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import server.database.Database;
+import server.database.KeyPath;
+import server.stats.Stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized "get" responses of hot keys. Entries are split into segments by
+ * top-level key, each an LRU list with its own share of the size limit (counted in
+ * characters). A change to a key drops every cached response at, above or below
+ * its path, since all of those contain or are contained in the changed value.
+ *
+ * Each segment counts the changes it has seen. A reader notes the count before
+ * reading the database and the response is only cached if nothing in the segment
+ * changed meanwhile, so a slow reader can never cache a stale value.
+ */
+public enum ResponseCache {
+
+    INSTANCE;
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private volatile boolean enabled;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    ResponseCache() {}
+
+    /** Enables the cache with the given size limit. Call once, before serving requests. */
+    public void configure(long maxChars) {
+        if (maxChars <= 0) {
+            return;
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxChars / SEGMENTS);
+        }
+        enabled = true;
+        Database.INSTANCE.addListener(this::invalidate);
+        Stats.INSTANCE.section("cache", this::toJson);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Change count of the path's segment, to be passed to {@link #put}. */
+    public long stamp(KeyPath path) {
+        Segment segment = segment(path);
+        synchronized (segment) {
+            return segment.changes;
+        }
+    }
+
+    public String get(KeyPath path) {
+        Segment segment = segment(path);
+        String json;
+        synchronized (segment) {
+            json = segment.entries.get(path);
+        }
+        if (json != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return json;
+    }
+
+    public void put(KeyPath path, String json, long stamp) {
+        Segment segment = segment(path);
+        if (json.length() > segment.maxChars / 8) {
+            return;
+        }
+        synchronized (segment) {
+            if (segment.changes != stamp) {
+                return;
+            }
+            String old = segment.entries.put(path, json);
+            segment.chars += json.length() - (old != null ? old.length() : 0);
+            segment.byTop.computeIfAbsent(path.top(), k -> new HashSet<>()).add(path);
+            Iterator<Map.Entry<KeyPath, String>> eldest = segment.entries.entrySet().iterator();
+            while (segment.chars > segment.maxChars && eldest.hasNext()) {
+                Map.Entry<KeyPath, String> entry = eldest.next();
+                eldest.remove();
+                segment.forget(entry.getKey(), entry.getValue());
+                evictions.increment();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public long getSize() {
+        long chars = 0;
+        for (Segment segment : segments) {
+            if (segment != null) {
+                synchronized (segment) {
+                    chars += segment.chars;
+                }
+            }
+        }
+        return chars;
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("hits", getHits());
+        json.addProperty("misses", getMisses());
+        json.addProperty("hitRate", Math.round(getHitRate() * 1000) / 1000.0);
+        json.addProperty("evictions", getEvictions());
+        json.addProperty("invalidations", getInvalidations());
+        json.addProperty("chars", getSize());
+        return json;
+    }
+
+    private void invalidate(KeyPath path, JsonElement value) {
+        Segment segment = segment(path);
+        synchronized (segment) {
+            segment.changes++;
+            Set<KeyPath> related = segment.byTop.get(path.top());
+            if (related == null) {
+                return;
+            }
+            for (KeyPath cached : new ArrayList<>(related)) {
+                if (cached.startsWith(path) || path.startsWith(cached)) {
+                    segment.forget(cached, segment.entries.remove(cached));
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    private Segment segment(KeyPath path) {
+        int h = path.top().hashCode();
+        return segments[((h ^ (h >>> 16)) & 0x7fffffff) % SEGMENTS];
+    }
+
+    private static final class Segment {
+        final long maxChars;
+        final LinkedHashMap<KeyPath, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+        // Cached paths by top-level key, so a change only looks at its own key's entries
+        final Map<String, Set<KeyPath>> byTop = new HashMap<>();
+        long chars;
+        long changes;
+
+        Segment(long maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        void forget(KeyPath path, String json) {
+            chars -= json.length();
+            Set<KeyPath> paths = byTop.get(path.top());
+            paths.remove(path);
+            if (paths.isEmpty()) {
+                byTop.remove(path.top());
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package server.cli;
+
+import com.beust.jcommander.Parameter;
+import server.database.Database;
+import server.net.BinaryFraming;
+import server.net.Framing;
+
+import java.util.Collections;
+import java.util.List;
+
+public class ServerArgs {
+
+    @Parameter(
+            names = {"-db", "--database"},
+            description = "Path of the database file",
+            order = 0)
+    public String database = Database.DEFAULT_PATH;
+
+    @Parameter(
+            names = {"-s", "--storage"},
+            description = "Storage engine: file (rewrite on every change), snapshot (background checkpoints), wal (append-only log) or memory",
+            order = 1)
+    public String storage = "file";
+
+    @Parameter(
+            names = {"--wal-dir"},
+            description = "Directory for log segments and snapshots, defaults to <database>.wal",
+            order = 2)
+    public String walDir;
+
+    @Parameter(
+            names = {"--wal-checkpoint-bytes"},
+            description = "Log size after which a snapshot is written and old segments are dropped",
+            order = 3)
+    public long walCheckpointBytes = 64L * 1024 * 1024;
+
+    @Parameter(
+            names = {"--snapshot-interval-ms"},
+            description = "Maximum data-loss window of the snapshot storage",
+            order = 4)
+    public long snapshotIntervalMillis = 1000;
+
+    @Parameter(
+            names = {"-m", "--mode"},
+            description = "Connection model: thread (one thread per connection) or nio (selector event loop)",
+            order = 5)
+    public String mode = "thread";
+
+    @Parameter(
+            names = {"--max-connections"},
+            description = "Maximum number of concurrent connections, 0 for no limit",
+            order = 6)
+    public int maxConnections = 0;
+
+    @Parameter(
+            names = {"--keep-alive"},
+            description = "Serve many requests per connection in thread mode (nio connections are always persistent)",
+            order = 7)
+    public boolean keepAlive = false;
+
+    @Parameter(
+            names = {"--workers"},
+            description = "Request execution threads in nio mode",
+            order = 8)
+    public int workers = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(
+            names = {"-f", "--framing"},
+            description = "Message framing: utf (writeUTF, up to 64 KB) or binary (length-prefixed chunks)",
+            order = 9)
+    public String framing = "utf";
+
+    @Parameter(
+            names = {"--chunk-size"},
+            description = "Largest chunk of a binary frame",
+            order = 10)
+    public int chunkSize = BinaryFraming.DEFAULT_CHUNK_SIZE;
+
+    @Parameter(
+            names = {"-l", "--locking"},
+            description = "Database locking: global (one read-write lock) or striped (by top-level key)",
+            order = 11)
+    public String locking = "global";
+
+    @Parameter(
+            names = {"--lock-stripes"},
+            description = "Number of lock stripes for striped locking",
+            order = 12)
+    public int lockStripes = 64;
+
+    @Parameter(
+            names = {"--path-index-size"},
+            description = "Maximum number of nested key paths remembered for O(1) gets, 0 disables the index",
+            order = 13)
+    public int pathIndexSize = 100_000;
+
+    @Parameter(
+            names = {"--response-cache-size"},
+            description = "Characters of serialized get responses kept for hot keys, 0 disables the cache",
+            order = 14)
+    public long responseCacheSize = 16L * 1024 * 1024;
+
+    @Parameter(
+            names = {"--lazy-load-bytes"},
+            description = "Top-level values at least this large are parsed on first use instead of at startup "
+                    + "(snapshot and wal storage), 0 parses everything at startup",
+            order = 15)
+    public long lazyLoadBytes = 0;
+
+    @Parameter(
+            names = {"--watch-queue-size"},
+            description = "Change events buffered per watch before the overflow policy applies",
+            order = 16)
+    public int watchQueueSize = 1024;
+
+    @Parameter(
+            names = {"--watch-overflow"},
+            description = "What happens to a watch whose client falls behind: close (send overflow and end it) "
+                    + "or drop-oldest",
+            order = 17)
+    public String watchOverflow = "close";
+
+    @Parameter(
+            names = {"-p", "--port"},
+            description = "Port to listen on",
+            order = 18)
+    public int port = 8000;
+
+    @Parameter(
+            names = {"--replica-of"},
+            description = "Run as a read-only replica of the server at host:port (same framing on both)",
+            order = 19)
+    public String replicaOf;
+
+    @Parameter(
+            names = {"--replication-queue-size"},
+            description = "Mutations buffered per replica before a lagging replica is cut off and re-bootstraps",
+            order = 20)
+    public int replicationQueueSize = 65536;
+
+    @Parameter(
+            names = {"--stats-interval-ms"},
+            description = "Print the stats request's output this often, 0 never",
+            order = 21)
+    public long statsIntervalMillis = 0;
+
+    @Parameter(
+            names = {"--index"},
+            description = "Comma-separated fields inside the top-level values to index for query requests, "
+                    + "nested names joined by dots, e.g. person.city",
+            order = 22)
+    public List<String> indexes;
+
+    @Parameter(
+            names = {"--max-in-flight"},
+            description = "Requests executing or waiting for a worker, over all connections; "
+                    + "further ones are answered Overloaded at once. 0 for no limit",
+            order = 23)
+    public int maxInFlight = 1024;
+
+    @Parameter(
+            names = {"--max-pipelined"},
+            description = "Requests in flight per nio connection before the server stops reading it",
+            order = 24)
+    public int maxPipelined = 64;
+
+    @Parameter(
+            names = {"--durability"},
+            description = "Default durability of writes: none, async or sync. "
+                    + "Defaults to what the storage provides: sync for file and wal, async for snapshot",
+            order = 25)
+    public String durability;
+
+    @Parameter(
+            names = {"--write-pipeline"},
+            description = "Apply every write on one thread, fed through a ring buffer of this many slots, "
+                    + "with lock-free gets of copied-on-write values. 0 lets each connection write under the locks",
+            order = 26)
+    public int writePipeline = 0;
+
+    @Parameter(
+            names = {"--max-threads"},
+            description = "Connection threads in thread mode; further connections are answered Overloaded "
+                    + "and closed. 0 for no limit",
+            order = 27)
+    public int maxThreads = 512;
+
+    public String getDatabase() {
+        return database;
+    }
+
+    public String getStorage() {
+        return storage;
+    }
+
+    public String getWalDir() {
+        return walDir != null ? walDir : database + ".wal";
+    }
+
+    public long getWalCheckpointBytes() {
+        return walCheckpointBytes;
+    }
+
+    public long getSnapshotIntervalMillis() {
+        return snapshotIntervalMillis;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public Framing getFraming() {
+        return Framing.of(framing, chunkSize);
+    }
+
+    public String getLocking() {
+        return locking;
+    }
+
+    public int getLockStripes() {
+        return lockStripes;
+    }
+
+    public int getPathIndexSize() {
+        return pathIndexSize;
+    }
+
+    public long getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    public long getLazyLoadBytes() {
+        return lazyLoadBytes;
+    }
+
+    public int getWatchQueueSize() {
+        return watchQueueSize;
+    }
+
+    public Subscription.OverflowPolicy getWatchOverflow() {
+        switch (watchOverflow) {
+            case "close":
+                return Subscription.OverflowPolicy.CLOSE;
+            case "drop-oldest":
+                return Subscription.OverflowPolicy.DROP_OLDEST;
+            default:
+                throw new IllegalArgumentException("Unknown watch overflow policy: " + watchOverflow);
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getReplicaOf() {
+        return replicaOf;
+    }
+
+    public int getReplicationQueueSize() {
+        return replicationQueueSize;
+    }
+
+    public long getStatsIntervalMillis() {
+        return statsIntervalMillis;
+    }
+
+    public List<String> getIndexes() {
+        return indexes != null ? indexes : Collections.emptyList();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getMaxPipelined() {
+        return maxPipelined;
+    }
+
+    public String getDurability() {
+        return durability;
+    }
+
+    public int getWritePipeline() {
+        return writePipeline;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+}
@@ -0,0 +1,130 @@
+package server.cli;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import server.database.KeyPath;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Events waiting to be sent to one client: the changes of a watched path, or the
+ * mutations streamed to a replica. The queue is bounded and offering never blocks:
+ * when it is full the subscription either drops its oldest event or ends with an
+ * overflow event, depending on the policy.
+ */
+public class Subscription {
+
+    public enum OverflowPolicy { CLOSE, DROP_OLDEST }
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+    private final KeyPath path;
+    private final BlockingQueue<String> events;
+    private final OverflowPolicy policy;
+    private final Consumer<Subscription> unsubscribe;
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private volatile Runnable onEvent;
+    private volatile boolean closed;
+    private long dropped;
+
+    /** {@code path} is the watched path, or null for a stream not tied to one. */
+    public Subscription(KeyPath path, int capacity, OverflowPolicy policy, Consumer<Subscription> unsubscribe) {
+        this.path = path;
+        this.events = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.policy = policy;
+        this.unsubscribe = unsubscribe;
+    }
+
+    public KeyPath getPath() {
+        return path;
+    }
+
+    /** Events queued but not sent yet. */
+    public int getPending() {
+        return events.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** Done once every queued event, including the overflow event, has been taken. */
+    public boolean isFinished() {
+        return closed && events.isEmpty();
+    }
+
+    /**
+     * Runs whenever events become available after {@link #poll} last found the queue
+     * empty. Called with a database lock held, so it must not block.
+     */
+    public void onEvent(Runnable onEvent) {
+        this.onEvent = onEvent;
+        signal();
+    }
+
+    public String poll() {
+        signalled.set(false);
+        return events.poll();
+    }
+
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return events.poll(timeout, unit);
+    }
+
+    public void close() {
+        if (!closed) {
+            closed = true;
+            unsubscribe.accept(this);
+        }
+    }
+
+    /** Called with the changed key's write lock held. */
+    public synchronized void offer(String event) {
+        if (closed) {
+            return;
+        }
+        if (dropped > 0) {
+            event = withDropped(event, dropped);
+        }
+        if (events.offer(event)) {
+            dropped = 0;
+        } else if (policy == OverflowPolicy.DROP_OLDEST) {
+            events.poll();
+            events.offer(event);
+            dropped++;
+        } else {
+            // Whatever is queued is useless without the events lost now: the client has to resync
+            events.clear();
+            events.offer(overflowEvent());
+            close();
+        }
+        signal();
+    }
+
+    private String overflowEvent() {
+        JsonObject event = new JsonObject();
+        event.addProperty("event", "overflow");
+        if (path != null) {
+            event.add("key", path.toJson());
+        }
+        return GSON.toJson(event);
+    }
+
+    private static String withDropped(String event, long dropped) {
+        JsonObject json = GSON.fromJson(event, JsonObject.class);
+        json.addProperty("dropped", dropped);
+        return GSON.toJson(json);
+    }
+
+    private void signal() {
+        Runnable callback = onEvent;
+        if (callback != null && !events.isEmpty() && signalled.compareAndSet(false, true)) {
+            callback.run();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package server.cli;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import server.database.Database;
+import server.database.KeyPath;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watched paths and their subscriptions. A change is sent to every subscription
+ * whose path is at, above or below the changed path. Each event is serialized once,
+ * however many subscriptions receive it:
+ * <pre>
+ *   {"event":"set","key":["a","b"],"value":...}
+ *   {"event":"delete","key":["a","b"]}
+ *   {"event":"overflow","key":[...]}     the subscription ended, the client must resync
+ * </pre>
+ * With the drop-oldest policy the next event after a loss carries {@code "dropped": n}.
+ */
+public enum WatchRegistry {
+
+    INSTANCE;
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+    private final Map<String, List<Subscription>> byTop = new ConcurrentHashMap<>();
+    private int queueSize = 1024;
+    private Subscription.OverflowPolicy policy = Subscription.OverflowPolicy.CLOSE;
+    private boolean listening;
+
+    WatchRegistry() {}
+
+    /** Call once, before serving requests. */
+    public void configure(int queueSize, Subscription.OverflowPolicy policy) {
+        this.queueSize = queueSize;
+        this.policy = policy;
+    }
+
+    public synchronized Subscription subscribe(KeyPath path) {
+        if (!listening) {
+            Database.INSTANCE.addListener(this::changed);
+            listening = true;
+        }
+        Subscription subscription = new Subscription(path, queueSize, policy, this::unsubscribe);
+        byTop.computeIfAbsent(path.top(), k -> new CopyOnWriteArrayList<>()).add(subscription);
+        return subscription;
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        List<Subscription> subscriptions = byTop.get(subscription.getPath().top());
+        if (subscriptions != null) {
+            subscriptions.remove(subscription);
+        }
+    }
+
+    public int getSubscriptions() {
+        int count = 0;
+        for (List<Subscription> subscriptions : byTop.values()) {
+            count += subscriptions.size();
+        }
+        return count;
+    }
+
+    private void changed(KeyPath path, JsonElement value) {
+        List<Subscription> subscriptions = byTop.get(path.top());
+        if (subscriptions == null || subscriptions.isEmpty()) {
+            return;
+        }
+        String event = null;
+        for (Subscription subscription : subscriptions) {
+            if (path.startsWith(subscription.getPath()) || subscription.getPath().startsWith(path)) {
+                if (event == null) {
+                    event = event(path, value);
+                }
+                subscription.offer(event);
+            }
+        }
+    }
+
+    private static String event(KeyPath path, JsonElement value) {
+        JsonObject event = new JsonObject();
+        event.addProperty("event", value != null ? "set" : "delete");
+        event.add("key", path.toJson());
+        if (value != null) {
+            event.add("value", value);
+        }
+        return GSON.toJson(event);
+    }
+}
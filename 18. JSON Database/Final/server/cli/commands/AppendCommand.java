@@ -0,0 +1,34 @@
+package server.cli.commands;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import server.database.Database;
+import server.exceptions.WrongTypeException;
+
+/** Appends the value to the array under the key, creating the array if the key is missing. */
+public class AppendCommand implements Command {
+
+    private final JsonElement key;
+    private final JsonElement value;
+
+    public AppendCommand(JsonElement key, JsonElement value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public void execute() {
+        Database.INSTANCE.update(key, current -> {
+            if (current != null && !current.isJsonArray()) {
+                throw new WrongTypeException();
+            }
+            // A new array, so a response still being written from the old one is not affected
+            JsonArray array = new JsonArray();
+            if (current != null) {
+                array.addAll(current.getAsJsonArray());
+            }
+            array.add(value);
+            return array;
+        });
+    }
+}
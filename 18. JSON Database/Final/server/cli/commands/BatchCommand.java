@@ -0,0 +1,17 @@
+package server.cli.commands;
+
+import server.database.Database;
+
+public class BatchCommand implements Command {
+
+    private final Runnable operations;
+
+    public BatchCommand(Runnable operations) {
+        this.operations = operations;
+    }
+
+    @Override
+    public void execute() {
+        Database.INSTANCE.batch(operations);
+    }
+}
@@ -0,0 +1,32 @@
+package server.cli.commands;
+
+import com.google.gson.JsonElement;
+import server.database.Database;
+import server.exceptions.ValueMismatchException;
+
+import java.util.Objects;
+
+/**
+ * Sets the value only if the current one equals {@code expected}.
+ * A missing {@code expected} means the key must not exist yet.
+ */
+public class CompareAndSetCommand implements Command {
+
+    private final JsonElement key;
+    private final JsonElement expected;
+    private final JsonElement value;
+
+    public CompareAndSetCommand(JsonElement key, JsonElement expected, JsonElement value) {
+        this.key = key; this.expected = expected; this.value = value;
+    }
+
+    @Override
+    public void execute() {
+        Database.INSTANCE.update(key, current -> {
+            if (!Objects.equals(expected, current)) {
+                throw new ValueMismatchException();
+            }
+            return value;
+        });
+    }
+}
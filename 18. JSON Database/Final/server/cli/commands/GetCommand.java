@@ -8,18 +8,33 @@ import javax.xml.crypto.Data;
 public class GetCommand implements Command {
 
     private final JsonElement key;
+    private final boolean versioned;
     private JsonElement result;
+    private Long version;
 
     public GetCommand(JsonElement key) {
+        this(key, false);
+    }
+
+    public GetCommand(JsonElement key, boolean versioned) {
         this.key = key;
+        this.versioned = versioned;
     }
 
     public final JsonElement getResult() {
         return result;
     }
 
+    public final Long getVersion() {
+        return version;
+    }
+
     @Override
     public void execute() {
+        if (versioned) {
+            // Before the value: a change in between makes the transaction conflict, never succeed wrongly
+            version = Database.INSTANCE.version(key);
+        }
         result = Database.INSTANCE.get(key);
     }
 }
@@ -0,0 +1,62 @@
+package server.cli.commands;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import server.database.Database;
+import server.exceptions.WrongTypeException;
+
+import java.math.BigDecimal;
+
+/** Adds a number to the value under the key, which may be a numeric string. A missing key counts as 0. */
+public class IncrementCommand implements Command {
+
+    private static final JsonPrimitive ONE = new JsonPrimitive(1);
+
+    private final JsonElement key;
+    private final JsonElement delta;
+    private JsonElement result;
+
+    public IncrementCommand(JsonElement key, JsonElement delta) {
+        this.key = key;
+        this.delta = delta != null && !delta.isJsonNull() ? delta : ONE;
+    }
+
+    public final JsonElement getResult() {
+        return result;
+    }
+
+    @Override
+    public void execute() {
+        BigDecimal amount = toNumber(delta);
+        result = Database.INSTANCE.update(key, current -> {
+            if (current == null) {
+                return sum(BigDecimal.ZERO, amount);
+            }
+            if (!current.isJsonPrimitive()) {
+                throw new WrongTypeException();
+            }
+            return sum(toNumber(current), amount);
+        });
+    }
+
+    private static BigDecimal toNumber(JsonElement element) {
+        // The command line client sends every value as a string
+        try {
+            return element.getAsBigDecimal();
+        } catch (NumberFormatException | UnsupportedOperationException | IllegalStateException e) {
+            throw new WrongTypeException();
+        }
+    }
+
+    private static JsonPrimitive sum(BigDecimal a, BigDecimal b) {
+        BigDecimal sum = a.add(b);
+        if (sum.scale() <= 0) {
+            try {
+                return new JsonPrimitive(sum.longValueExact());
+            } catch (ArithmeticException e) {
+                // Too large for a long, keep it exact
+            }
+        }
+        return new JsonPrimitive(sum);
+    }
+}
@@ -0,0 +1,31 @@
+package server.cli.commands;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import server.database.Database;
+import server.database.KeyPath;
+import server.exceptions.NoSuchKeyException;
+
+/** Declares an index on a field inside the top-level values; the result lists every indexed field. */
+public class IndexCommand implements Command {
+
+    private final JsonElement field;
+    private JsonArray result;
+
+    public IndexCommand(JsonElement field) {
+        this.field = field;
+    }
+
+    public final JsonArray getResult() {
+        return result;
+    }
+
+    @Override
+    public void execute() {
+        if (field == null) {
+            throw new NoSuchKeyException();
+        }
+        Database.INSTANCE.createIndex(KeyPath.of(field));
+        result = Database.INSTANCE.indexes();
+    }
+}
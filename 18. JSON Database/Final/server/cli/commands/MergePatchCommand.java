@@ -0,0 +1,48 @@
+package server.cli.commands;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import server.database.Database;
+
+import java.util.Map;
+
+/**
+ * Applies a JSON merge patch (RFC 7386) to the value under the key: members of the
+ * patch replace members of the value, null members remove them and nested objects
+ * are merged recursively.
+ */
+public class MergePatchCommand implements Command {
+
+    private final JsonElement key;
+    private final JsonElement patch;
+
+    public MergePatchCommand(JsonElement key, JsonElement patch) {
+        this.key = key; this.patch = patch;
+    }
+
+    @Override
+    public void execute() {
+        Database.INSTANCE.update(key, current -> merge(current, patch));
+    }
+
+    private static JsonElement merge(JsonElement target, JsonElement patch) {
+        if (patch == null || !patch.isJsonObject()) {
+            return patch;
+        }
+        // Copies only the objects on patched paths, untouched members are shared
+        JsonObject result = new JsonObject();
+        if (target != null && target.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : target.getAsJsonObject().entrySet()) {
+                result.add(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, JsonElement> entry : patch.getAsJsonObject().entrySet()) {
+            if (entry.getValue().isJsonNull()) {
+                result.remove(entry.getKey());
+            } else {
+                result.add(entry.getKey(), merge(result.get(entry.getKey()), entry.getValue()));
+            }
+        }
+        return result;
+    }
+}
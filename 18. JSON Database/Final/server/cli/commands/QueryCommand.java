@@ -0,0 +1,52 @@
+package server.cli.commands;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import server.database.Database;
+import server.database.KeyPath;
+import server.exceptions.NoSuchKeyException;
+import server.exceptions.NoSuchRequestException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the top-level keys whose value has the given value at an indexed field.
+ * {@code project} optionally lists the fields to return with each key, [] for the whole value.
+ */
+public class QueryCommand implements Command {
+
+    private final JsonElement field;
+    private final JsonElement equals;
+    private final JsonElement project;
+    private JsonArray result;
+
+    public QueryCommand(JsonElement field, JsonElement equals, JsonElement project) {
+        this.field = field;
+        this.equals = equals;
+        this.project = project;
+    }
+
+    public final JsonArray getResult() {
+        return result;
+    }
+
+    @Override
+    public void execute() {
+        if (field == null) {
+            throw new NoSuchKeyException();
+        }
+        if (equals == null || (project != null && !project.isJsonNull() && !project.isJsonArray())) {
+            throw new NoSuchRequestException();
+        }
+        List<KeyPath> projection = null;
+        if (project != null && project.isJsonArray()) {
+            projection = new ArrayList<>();
+            for (JsonElement path : project.getAsJsonArray()) {
+                boolean whole = path.isJsonArray() && path.getAsJsonArray().size() == 0;
+                projection.add(whole ? null : KeyPath.of(path));
+            }
+        }
+        result = Database.INSTANCE.query(KeyPath.of(field), equals, projection);
+    }
+}
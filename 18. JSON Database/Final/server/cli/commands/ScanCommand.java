@@ -0,0 +1,75 @@
+package server.cli.commands;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import server.database.Database;
+import server.exceptions.NoSuchRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of top-level keys in sorted order. The result holds the keys and, when
+ * more may follow, a cursor to pass with the next scan. The cursor only encodes the
+ * last key returned, so it stays valid however the database changes in between.
+ */
+public class ScanCommand implements Command {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 10_000;
+
+    private final String prefix;
+    private final String from;
+    private final String to;
+    private final String cursor;
+    private final int limit;
+    private JsonObject result;
+
+    public ScanCommand(String prefix, String from, String to, String cursor, Integer limit) {
+        this.prefix = prefix;
+        this.from = from;
+        this.to = to;
+        this.cursor = cursor;
+        this.limit = limit != null ? limit : DEFAULT_LIMIT;
+    }
+
+    public final JsonObject getResult() {
+        return result;
+    }
+
+    @Override
+    public void execute() {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new NoSuchRequestException();
+        }
+        // One more than asked tells whether another page follows
+        List<String> keys = Database.INSTANCE.scan(prefix, from, to, decode(cursor), limit + 1);
+        boolean more = keys.size() > limit;
+        if (more) {
+            keys = keys.subList(0, limit);
+        }
+        JsonArray page = new JsonArray(keys.size());
+        keys.forEach(page::add);
+        result = new JsonObject();
+        result.add("keys", page);
+        if (more) {
+            result.addProperty("cursor", encode(keys.get(keys.size() - 1)));
+        }
+    }
+
+    public static String encode(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new NoSuchRequestException();
+        }
+    }
+}
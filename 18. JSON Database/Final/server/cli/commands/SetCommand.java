@@ -7,13 +7,18 @@ public class SetCommand implements Command {
 
     private final JsonElement key;
     private final JsonElement value;
+    private final long ttlMillis;
 
     public SetCommand(JsonElement key, JsonElement value) {
-        this.key = key; this.value = value;
+        this(key, value, 0);
+    }
+
+    public SetCommand(JsonElement key, JsonElement value, long ttlMillis) {
+        this.key = key; this.value = value; this.ttlMillis = ttlMillis;
     }
 
     @Override
     public void execute() {
-        Database.INSTANCE.set(key, value);
+        Database.INSTANCE.set(key, value, ttlMillis);
     }
 }
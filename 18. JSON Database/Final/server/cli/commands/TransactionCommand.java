@@ -0,0 +1,52 @@
+package server.cli.commands;
+
+import server.cli.requests.Request;
+import server.database.Database;
+import server.database.KeyPath;
+import server.database.Mutation;
+import server.exceptions.NoSuchRequestException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a set of sets and deletes if none of the read keys changed since the
+ * client read them with a versioned get.
+ */
+public class TransactionCommand implements Command {
+
+    private final Map<KeyPath, Long> reads = new LinkedHashMap<>();
+    private final List<Mutation> writes = new ArrayList<>();
+
+    public TransactionCommand(List<Request> reads, List<Request> writes) {
+        for (Request read : reads != null ? reads : Collections.<Request>emptyList()) {
+            if (read.getKey() == null || read.getVersion() == null) {
+                throw new NoSuchRequestException();
+            }
+            this.reads.put(KeyPath.of(read.getKey()), read.getVersion());
+        }
+        for (Request write : writes != null ? writes : Collections.<Request>emptyList()) {
+            if (write.getKey() == null || write.getType() == null) {
+                throw new NoSuchRequestException();
+            }
+            switch (write.getType()) {
+                case "set":
+                    this.writes.add(Mutation.set(write.getKey(), write.getValue()));
+                    break;
+                case "delete":
+                    this.writes.add(Mutation.delete(write.getKey()));
+                    break;
+                default:
+                    throw new NoSuchRequestException();
+            }
+        }
+    }
+
+    @Override
+    public void execute() {
+        Database.INSTANCE.transaction(reads, writes);
+    }
+}
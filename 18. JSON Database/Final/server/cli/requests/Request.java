@@ -3,6 +3,8 @@ package server.cli.requests;
 import com.beust.jcommander.Parameter;
 import com.google.gson.JsonElement;
 
+import java.util.List;
+
 
 public class Request {
 
@@ -15,10 +17,42 @@ public class Request {
     @Parameter(names = {"-v", "--value"}, description = "The text value to add")
     private JsonElement value;
 
+    //Ожидаемое значение для "cas"
+    private JsonElement expected;
+
+    //Время жизни значения "set" в миллисекундах
+    private Long ttl;
+
+    //Версия ключа в "reads" транзакции
+    private Long version;
+
+    //Вернуть версию вместе со значением "get"
+    private boolean versioned;
+
+    //Поля значения, возвращаемые "query"
+    private JsonElement project;
+
+    //Границы и страница "scan"
+    private String prefix;
+    private String from;
+    private String to;
+    private Integer limit;
+    private String cursor;
+
+    //Уровень надёжности записи: none, async или sync
+    private String durability;
+
     //Название файла для чтения
     @Parameter(names = {"-in", "--commandfromfile"}, description = "The text with commands from file")
     private String commandfromfile;
 
+    //Операции запроса "batch"
+    private List<Request> requests;
+
+    //Операции транзакции: проверяемые версии и изменения
+    private List<Request> reads;
+    private List<Request> writes;
+
 
     public Request() {
     }
@@ -35,6 +69,62 @@ public class Request {
         return value;
     }
 
+    public JsonElement getExpected() {
+        return expected;
+    }
+
+    public JsonElement getProject() {
+        return project;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public String getDurability() {
+        return durability;
+    }
+
+    public Long getTtl() {
+        return ttl;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public boolean isVersioned() {
+        return versioned;
+    }
+
+    public List<Request> getReads() {
+        return reads;
+    }
+
+    public List<Request> getWrites() {
+        return writes;
+    }
+
+    public List<Request> getRequests() {
+        return requests;
+    }
+
     public void setType(String type) {
         this.type = type;
     }
@@ -46,4 +136,60 @@ public class Request {
     public void setValue(JsonElement value) {
         this.value = value;
     }
+
+    public void setExpected(JsonElement expected) {
+        this.expected = expected;
+    }
+
+    public void setProject(JsonElement project) {
+        this.project = project;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public void setDurability(String durability) {
+        this.durability = durability;
+    }
+
+    public void setTtl(Long ttl) {
+        this.ttl = ttl;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public void setVersioned(boolean versioned) {
+        this.versioned = versioned;
+    }
+
+    public void setReads(List<Request> reads) {
+        this.reads = reads;
+    }
+
+    public void setWrites(List<Request> writes) {
+        this.writes = writes;
+    }
+
+    public void setRequests(List<Request> requests) {
+        this.requests = requests;
+    }
 }
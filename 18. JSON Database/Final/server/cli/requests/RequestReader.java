@@ -0,0 +1,141 @@
+package server.cli.requests;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a request envelope token by token instead of binding it with Gson reflection.
+ * The value is only turned into a tree when the request type uses it; for a get or a
+ * delete it is skipped without being built.
+ */
+public final class RequestReader {
+
+    private RequestReader() {}
+
+    public static Request read(String json) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            return read(reader);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonParseException(e);
+        }
+    }
+
+    public static Request read(JsonReader reader) throws IOException {
+        Request request = new Request();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type":
+                    request.setType(nextString(reader));
+                    break;
+                case "key":
+                    request.setKey(JsonParser.parseReader(reader));
+                    break;
+                case "value":
+                    if (request.getType() != null && !usesValue(request.getType())) {
+                        reader.skipValue();
+                    } else {
+                        request.setValue(JsonParser.parseReader(reader));
+                    }
+                    break;
+                case "expected":
+                    request.setExpected(JsonParser.parseReader(reader));
+                    break;
+                case "project":
+                    request.setProject(JsonParser.parseReader(reader));
+                    break;
+                case "prefix":
+                    request.setPrefix(nextString(reader));
+                    break;
+                case "from":
+                    request.setFrom(nextString(reader));
+                    break;
+                case "to":
+                    request.setTo(nextString(reader));
+                    break;
+                case "cursor":
+                    request.setCursor(nextString(reader));
+                    break;
+                case "limit":
+                    request.setLimit(reader.peek() == JsonToken.NULL ? nextNullInt(reader) : Integer.valueOf(reader.nextInt()));
+                    break;
+                case "requests":
+                    request.setRequests(readRequests(reader));
+                    break;
+                case "reads":
+                    request.setReads(readRequests(reader));
+                    break;
+                case "writes":
+                    request.setWrites(readRequests(reader));
+                    break;
+                case "version":
+                    request.setVersion(reader.peek() == JsonToken.NULL ? nextNull(reader) : Long.valueOf(reader.nextLong()));
+                    break;
+                case "durability":
+                    request.setDurability(nextString(reader));
+                    break;
+                case "ttl":
+                    request.setTtl(reader.peek() == JsonToken.NULL ? nextNull(reader) : Long.valueOf(reader.nextLong()));
+                    break;
+                case "versioned":
+                    request.setVersioned(reader.nextBoolean());
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return request;
+    }
+
+    private static List<Request> readRequests(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<Request> requests = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            requests.add(read(reader));
+        }
+        reader.endArray();
+        return requests;
+    }
+
+    private static Long nextNull(JsonReader reader) throws IOException {
+        reader.nextNull();
+        return null;
+    }
+
+    private static Integer nextNullInt(JsonReader reader) throws IOException {
+        reader.nextNull();
+        return null;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static boolean usesValue(String type) {
+        switch (type) {
+            case "get":
+            case "delete":
+            case "exit":
+                return false;
+            default:
+                return true;
+        }
+    }
+}
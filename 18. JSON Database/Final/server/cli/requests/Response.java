@@ -1,9 +1,8 @@
 package server.cli.requests;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
 
 public class Response {
 
@@ -12,8 +11,20 @@ public class Response {
 
 
     private String response;
+    private JsonElement value;
     private String reason;
-    private String value;
+    private List<Response> responses;
+    private Long version;
+    // Set when the whole response is already serialized, see ResponseCache
+    private transient String json;
+
+
+    public static Response serialized(String json) {
+        Response response = new Response();
+        response.setResponse(STATUS_OK);
+        response.json = json;
+        return response;
+    }
 
 
     public String getResponse() {
@@ -32,24 +43,38 @@ public class Response {
         this.reason = reason;
     }
 
-    public String getValue() {
+    public JsonElement getValue() {
         return value;
     }
 
-    public void setValue(String value) {
+    public void setValue(JsonElement value) {
         this.value = value;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public List<Response> getResponses() {
+        return responses;
+    }
+
+    public void setResponses(List<Response> responses) {
+        this.responses = responses;
+    }
+
+    String getSerialized() {
+        return json;
+    }
+
     public String toJSON() {
-        Map<String, String> map = new LinkedHashMap<>();
-        map.put("response", response);
-        if (value != null) {
-            map.put("value", value);
-        }
-        if (reason != null) {
-            map.put("reason", reason);
+        if (json != null) {
+            return json;
         }
-        //return new Gson().toJson(map);
-        return map.toString();
+        return ResponseWriter.toJson(this);
     }
 }
@@ -0,0 +1,96 @@
+package server.cli.requests;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes responses with a streaming writer into a buffer that is reused for every
+ * response of a connection. Not thread-safe: use one per connection.
+ */
+public final class ResponseWriter {
+
+    // Stored nulls are values too: leaving them out would change what the client reads
+    private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+    private final StringBuilder buffer = new StringBuilder(256);
+    private final Writer out = new Writer() {
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            buffer.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            buffer.append(string, offset, offset + length);
+        }
+
+        @Override
+        public void write(int c) {
+            buffer.append((char) c);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    public String write(Response response) {
+        buffer.setLength(0);
+        try {
+            // A JsonWriter accepts a single top-level value, so it cannot be reused
+            JsonWriter json = new JsonWriter(out);
+            write(json, response);
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+
+    /** Writes the response straight to {@code out}, for a framing that sends it as it comes. */
+    public void write(Response response, Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        write(json, response);
+        json.flush();
+    }
+
+    public static String toJson(Response response) {
+        return new ResponseWriter().write(response);
+    }
+
+    private static void write(JsonWriter json, Response response) throws IOException {
+        if (response.getSerialized() != null) {
+            json.jsonValue(response.getSerialized());
+            return;
+        }
+        json.beginObject();
+        json.name("response").value(response.getResponse());
+        if (response.getValue() != null) {
+            json.name("value");
+            GSON.toJson(response.getValue(), json);
+        }
+        if (response.getVersion() != null) {
+            json.name("version").value(response.getVersion());
+        }
+        if (response.getReason() != null) {
+            json.name("reason").value(response.getReason());
+        }
+        if (response.getResponses() != null) {
+            json.name("responses").beginArray();
+            for (Response each : response.getResponses()) {
+                write(json, each);
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+}
@@ -0,0 +1,15 @@
+package server.database;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Notified of every change to the database.
+ */
+public interface ChangeListener {
+
+    /**
+     * Called while the write lock of the changed key is held, so it must not block.
+     * {@code value} is the new value at {@code path}, or null if the path was deleted.
+     */
+    void changed(KeyPath path, JsonElement value);
+}
@@ -1,93 +1,442 @@
 package server.database;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import server.database.locks.GlobalLocks;
+import server.database.locks.KeyLocks;
+import server.database.persistence.Durability;
+import server.database.persistence.FilePersistence;
+import server.database.persistence.LazyValue;
+import server.database.persistence.Persistence;
+import server.database.persistence.SnapshotReader;
+import server.exceptions.NoSuchIndexException;
 import server.exceptions.NoSuchKeyException;
+import server.exceptions.ReadOnlyException;
+import server.exceptions.TransactionConflictException;
+import server.stats.Stats;
 
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 public enum Database {
 
     INSTANCE;
 
-    private JsonObject database;
-    private final Lock readLock;
-    private final Lock writeLock;
+    public static final String DEFAULT_PATH = "C:\\Users\\dodge\\IdeaProjects\\JSON Database\\JSON Database\\task\\src\\server\\data\\db.json";
+    // Top-level key under which persisted state keeps the TTL deadlines; not usable by clients
+    public static final String EXPIRY_KEY = "$expiry";
+    private static final long EXPIRY_TICK_MILLIS = 100;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
 
-    {
-        ReadWriteLock lock = new ReentrantReadWriteLock();
-        writeLock = lock.writeLock();
-        readLock = lock.readLock();
-    }
+    // Top-level keys. Each value is guarded by the lock of its key.
+    private final ConcurrentMap<String, JsonElement> database = new ConcurrentHashMap<>();
+    // Top-level values not parsed since loading. A key is in one map or the other.
+    private final ConcurrentMap<String, LazyValue> lazy = new ConcurrentHashMap<>();
+    // Every top-level key of both maps in sorted order, for scans. Changed under the key's write lock.
+    private final ConcurrentSkipListSet<String> sortedKeys = new ConcurrentSkipListSet<>();
+    private long lazyLoadThreshold;
+    private Persistence persistence = new FilePersistence(Paths.get(DEFAULT_PATH));
+    private KeyLocks locks = new GlobalLocks();
+    private PathIndex index = new PathIndex(100_000);
+    private final Versions versions = new Versions();
+    private final SecondaryIndexes secondary = new SecondaryIndexes();
+    private final Expirations expirations = new Expirations();
+    private final TimingWheel expiryWheel = new TimingWheel(EXPIRY_TICK_MILLIS, 512, this::expire);
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Durability of mutations made inside batch(), awaited once at the end of the batch
+    private final ThreadLocal<List<CompletableFuture<Void>>> pendingBatch = new ThreadLocal<>();
+    private volatile Durability durability = Durability.SYNC;
+    // Set for the mutations of one request, overriding the default above
+    private final ThreadLocal<Durability> requestDurability = new ThreadLocal<>();
+    // Set when every write runs on one thread; only that thread touches the two fields below
+    private WritePipeline pipeline;
+    private final List<Mutation> deferred = new ArrayList<>();
+    private Durability deferredLevel = Durability.NONE;
+    // Odd while several mutations are applied as one, by a thread holding every write lock
+    private volatile long atomicWrites;
+    // Copies of the root still in use; while any is, writers copy the path they change
+    private final AtomicInteger sharedRoots = new AtomicInteger();
+    private volatile boolean readOnly;
 
     Database() {}
 
+    /** Must be called before {@link #init()}. */
+    public void setPersistence(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    /** Must be called before {@link #init()}. */
+    public void setLocks(KeyLocks locks) {
+        this.locks = locks;
+    }
+
+    /** Must be called before {@link #init()}. */
+    public void setPathIndexSize(int maxSize) {
+        this.index = new PathIndex(pipeline != null ? 0 : maxSize);
+    }
+
+    /**
+     * Must be called before {@link #init()}. Hands every write to a single writer
+     * thread through a ring of {@code size} slots, see {@link WritePipeline}. The
+     * writer holds every lock while it applies a batch and records the batch as one
+     * mutation. Values are copied on write, never changed once stored, so a get
+     * reads them without taking a lock, unless it overlaps a transaction, batch or
+     * restore. 0 leaves writers on their own threads.
+     */
+    public void setWritePipeline(int size) {
+        if (size <= 0) {
+            return;
+        }
+        pipeline = new WritePipeline(size, new WritePipeline.Batch() {
+            @Override
+            public void begin() {
+                locks.lockAll(true);
+                deferredLevel = Durability.NONE;
+            }
+
+            @Override
+            public CompletableFuture<Void> end() {
+                try {
+                    if (deferred.isEmpty()) {
+                        return DONE;
+                    }
+                    Mutation mutation = deferred.size() == 1 ? deferred.get(0) : Mutation.transaction(deferred);
+                    return persist(mutation, deferredLevel);
+                } finally {
+                    deferred.clear();
+                    locks.unlockAll(true);
+                }
+            }
+        });
+        // Readers walk stored values without a lock and could cache a node just replaced
+        index = new PathIndex(0);
+    }
+
+    /** Must be called before {@link #init()}. 0 parses the whole snapshot while loading. */
+    public void setLazyLoadThreshold(long bytes) {
+        this.lazyLoadThreshold = bytes;
+    }
+
+    /** Durability of mutations whose request does not choose one. */
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Sets the durability of the calling thread's mutations, null for the default,
+     * and returns the previous one to be restored afterwards.
+     */
+    public Durability useDurability(Durability durability) {
+        Durability previous = requestDurability.get();
+        if (durability != null) {
+            requestDurability.set(durability);
+        } else {
+            requestDurability.remove();
+        }
+        return previous;
+    }
+
+    /** Rejects client writes: the content is only changed through {@link #replicate} and {@link #restore}. */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
     public void init() {
         try {
-            String content = new String(Files.readAllBytes(Paths.get("C:\\Users\\dodge\\IdeaProjects\\JSON Database\\JSON Database\\task\\src\\server\\data\\db.json")));
-            database = new Gson().fromJson(content, JsonObject.class);
-        } catch (FileNotFoundException e) {
-            throw new NoSuchKeyException();
+            locks.lockAll(true);
+            database.clear();
+            lazy.clear();
+            sortedKeys.clear();
+            index.clear();
+            versions.clear();
+            expirations.clear();
+            persistence.loadSnapshot(new SnapshotReader.Sink() {
+                @Override
+                public void put(String key, JsonElement value) {
+                    if (EXPIRY_KEY.equals(key)) {
+                        loadExpirations(value);
+                    } else {
+                        database.put(key, value);
+                        sortedKeys.add(key);
+                    }
+                }
+
+                @Override
+                public void putLazy(String key, LazyValue value) {
+                    if (EXPIRY_KEY.equals(key)) {
+                        loadExpirations(value.parse());
+                    } else {
+                        lazy.put(key, value);
+                        sortedKeys.add(key);
+                    }
+                }
+            }, lazyLoadThreshold);
+            persistence.replay(this::apply);
+            rebuildIndexes();
         } catch (IOException e) {
             e.printStackTrace();
         } catch (Exception e) {
             throw new NoSuchKeyException();
+        } finally {
+            locks.unlockAll(true);
+        }
+    }
+
+    public void close() {
+        if (pipeline != null) {
+            pipeline.close();
         }
+        persistence.close();
     }
 
     public void set(JsonElement key, JsonElement value){
+        set(key, value, 0);
+    }
+
+    /** Sets a value that is removed after {@code ttlMillis}, or never if it is 0. */
+    public void set(JsonElement key, JsonElement value, long ttlMillis){
+        checkWritable();
+        if (offload()) {
+            pipelined(() -> {
+                set(key, value, ttlMillis);
+                return null;
+            });
+            return;
+        }
+        Lock writeLock = locks.writeLock(topKey(key));
+        CompletableFuture<Void> durable;
         try {
             writeLock.lock();
-            //Если бд пуста, то пишем ключ-значение, а не обновляем что-либо
-            if (database == null) {
-                database = new JsonObject();
-                database.add(key.getAsString(),value);
+            long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+            Mutation mutation = Mutation.set(key, value, expiresAt);
+            setUnlocked(key, value, expiresAt);
+            durable = record(mutation);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(durable);
+    }
+
+    /**
+     * Replaces the value under the key with a function of the current one (null if
+     * the key is missing or expired, without any expired nodes inside) in one step
+     * under the key's write lock, and returns the new value. The function must not
+     * modify the current value. If it throws, nothing changes. The result is recorded
+     * as a set that keeps the key's TTL deadline, if it has one.
+     */
+    public JsonElement update(JsonElement key, UnaryOperator<JsonElement> function) {
+        checkWritable();
+        if (offload()) {
+            return pipelined(() -> update(key, function));
+        }
+        String top = topKey(key);
+        Lock writeLock = locks.writeLock(top);
+        CompletableFuture<Void> durable;
+        JsonElement value;
+        try {
+            writeLock.lock();
+            resolve(top);
+            value = function.apply(current(key));
+            Long deadline = expirations.get(KeyPath.of(key));
+            // An expired value was read as missing: the new one starts without a TTL
+            long expiresAt = deadline != null && deadline > System.currentTimeMillis() ? deadline : 0;
+            Mutation mutation = Mutation.set(key, value, expiresAt);
+            setUnlocked(key, value, expiresAt);
+            durable = record(mutation);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(durable);
+        return value;
+    }
+
+    /** Whether some key under the path's top-level key was set with a TTL. */
+    public boolean hasTtl(KeyPath path) {
+        return expirations.has(path.top());
+    }
+
+    /**
+     * Version of the key's value: it changes whenever the value or anything inside it
+     * changes. Read it before the value, so a change in between is seen as a conflict.
+     */
+    public long version(JsonElement key) {
+        String top = topKey(key);
+        Lock readLock = locks.readLock(top);
+        try {
+            readLock.lock();
+            return versions.get(KeyPath.of(key));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the writes only if every read path still has the version the client
+     * read, otherwise throws {@link TransactionConflictException} and changes nothing.
+     * Only the locks of the keys involved are held, and only while validating and
+     * applying. The writes are persisted as one record.
+     */
+    public void transaction(Map<KeyPath, Long> reads, List<Mutation> writes) {
+        checkWritable();
+        if (offload()) {
+            pipelined(() -> {
+                atomically(() -> transaction(reads, writes));
+                return null;
+            });
+            return;
+        }
+        Set<String> tops = new TreeSet<>();
+        for (KeyPath path : reads.keySet()) {
+            tops.add(path.top());
+        }
+        for (Mutation write : writes) {
+            tops.add(topKey(write.getKey()));
+        }
+        List<Lock> writeLocks = locks.writeLocks(tops);
+        CompletableFuture<Void> durable = null;
+        int locked = 0;
+        try {
+            for (Lock lock : writeLocks) {
+                lock.lock();
+                locked++;
+            }
+            for (String top : tops) {
+                resolve(top);
+            }
+            for (Map.Entry<KeyPath, Long> read : reads.entrySet()) {
+                if (versions.get(read.getKey()) != read.getValue()) {
+                    throw new TransactionConflictException();
+                }
+            }
+            // A write that cannot be applied must fail before any other is
+            checkApplicable(writes, new HashMap<>());
+            for (Mutation write : writes) {
+                apply(write);
+            }
+            if (!writes.isEmpty()) {
+                durable = record(Mutation.transaction(writes));
+            }
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                writeLocks.get(i).unlock();
+            }
+        }
+        if (durable != null) {
+            awaitDurable(durable);
+        }
+    }
+
+    private void setUnlocked(JsonElement key, JsonElement value, long expiresAt) {
+        if (value == null) {
+            value = JsonNull.INSTANCE;
+        }
+        KeyPath path = KeyPath.of(key);
+        //Надо определить, простой ключ у нас или массив
+        //Если простой - добавляем или обновляем
+        //Если массив - логика
+        if (key.isJsonPrimitive()) {
+            database.put(key.getAsString(), value);
+            lazy.remove(key.getAsString());
+        }
+        else if (key.isJsonArray()){
+            JsonArray keys = key.getAsJsonArray();
+            String toAdd = keys.remove(keys.size() - 1).getAsString();
+            if (keys.size() == 0) {
+                database.put(toAdd, value);
+                lazy.remove(toAdd);
             }
             else {
-                //Если бд не пустая,
-                //То надо определить, простой ключ у нас или массив
-                //Если простой - ищем и добавляем или обновляем
-                //Если массив - логика
-                if (key.isJsonPrimitive()) {
-                    database.add(key.getAsString(),value);
-                }
-                else if (key.isJsonArray()){
-                    JsonArray keys = key.getAsJsonArray();
-                    String toAdd = keys.remove(keys.size() - 1).getAsString();
+                resolve(path.top());
+                if (copyOnWrite()) {
+                    // Cached nodes above the path are replaced by copies
+                    index.onDelete(KeyPath.of(new JsonPrimitive(path.top())));
+                    database.put(path.top(), copyPath(database.get(path.top()), keys, keys.size(), toAdd, value));
+                } else {
                     //findElement - обновляет бд значением
                     findElement(keys, true).getAsJsonObject().add(toAdd, value);
                 }
-                else {
-                    throw new NoSuchKeyException();
-                }
             }
-
-            writoToDataBase();
-
-        } finally {
-            writeLock.unlock();
+        }
+        else {
+            throw new NoSuchKeyException();
+        }
+        sortedKeys.add(path.top());
+        index.onSet(path, value);
+        secondary.update(path.top(), database.get(path.top()));
+        versions.changed(path);
+        expirations.cleared(path);
+        if (expiresAt > 0) {
+            expirations.set(path, expiresAt);
+            expiryWheel.schedule(path, expiresAt);
+        }
+        for (ChangeListener listener : listeners) {
+            listener.changed(path, value);
         }
     }
 
     public JsonElement get(JsonElement key){
+        if (key.isJsonArray() && key.getAsJsonArray().size() == 0) {
+            return snapshot();
+        }
+        String top = topKey(key);
+        long atomic = atomicWrites;
+        if (pipeline != null && (atomic & 1) == 0 && !expirations.has(top) && !lazy.containsKey(top)) {
+            // Stored values are never changed in place: walk them without a lock, and
+            // take the lock after all if a write of several values went on meanwhile
+            JsonElement value = find(key);
+            if (atomicWrites == atomic) {
+                if (value == null) {
+                    throw new NoSuchKeyException();
+                }
+                return value;
+            }
+        }
+        Lock readLock = locks.readLock(top);
         try {
             readLock.lock();
-            if (key.isJsonPrimitive() && database.has(key.getAsString())){
-                return (JsonElement) database.get(key.getAsString());
+            resolve(top);
+            if (expirations.has(top)) {
+                return unexpired(key);
+            }
+            if (key.isJsonPrimitive() && database.containsKey(key.getAsString())){
+                return database.get(key.getAsString());
             }
             else if (key.isJsonArray()) {
-                return (JsonElement) findElement(key.getAsJsonArray(), false);
+                KeyPath path = KeyPath.of(key);
+                JsonElement node = index.get(path);
+                if (node == null) {
+                    node = findElement(key.getAsJsonArray(), false);
+                    index.put(path, node);
+                }
+                return node;
             }
             throw new NoSuchKeyException();
 
@@ -96,38 +445,735 @@ public enum Database {
         }
     }
     public void delete(JsonElement key){
+        checkWritable();
+        if (offload()) {
+            pipelined(() -> {
+                delete(key);
+                return null;
+            });
+            return;
+        }
+        Lock writeLock = locks.writeLock(topKey(key));
+        CompletableFuture<Void> durable;
         try {
             writeLock.lock();
-            if (key.isJsonPrimitive() && database.has(key.getAsString())){
-                database.remove(key.getAsString());
+            Mutation mutation = Mutation.delete(key);
+            deleteUnlocked(key);
+            durable = record(mutation);
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(durable);
+    }
+
+    private void deleteUnlocked(JsonElement key) {
+        KeyPath path = KeyPath.of(key);
+        index.onDelete(path);
+        versions.changed(path);
+        expirations.cleared(path);
+        if (key.isJsonPrimitive()){
+            database.remove(key.getAsString());
+            lazy.remove(key.getAsString());
+            sortedKeys.remove(key.getAsString());
+        }
+        else if (key.isJsonArray()){
+            JsonArray keys = key.getAsJsonArray();
+            String toDelete = keys.remove(keys.size() - 1).getAsString();
+            if (keys.size() == 0) {
+                database.remove(toDelete);
+                lazy.remove(toDelete);
+                sortedKeys.remove(toDelete);
             }
-            else if (key.isJsonArray()){
-                JsonArray keys = key.getAsJsonArray();
-                String toDelete = keys.remove(keys.size() - 1).getAsString();
-                findElement(keys, true).getAsJsonObject().remove(toDelete);
+            else {
+                resolve(path.top());
+                if (copyOnWrite()) {
+                    index.onDelete(KeyPath.of(new JsonPrimitive(path.top())));
+                    database.put(path.top(), copyPath(database.get(path.top()), keys, keys.size(), toDelete, null));
+                } else {
+                    findElement(keys, true).getAsJsonObject().remove(toDelete);
+                }
+            }
+        }
+        secondary.update(path.top(), database.get(path.top()));
+        for (ChangeListener listener : listeners) {
+            listener.changed(path, null);
+        }
+    }
+
+    /**
+     * Runs several operations while holding every lock exclusively. Mutations made
+     * by the operations are waited on together after the locks are released.
+     */
+    public void batch(Runnable operations) {
+        if (offload()) {
+            pipelined(() -> {
+                atomically(() -> batch(operations));
+                return null;
+            });
+            return;
+        }
+        List<CompletableFuture<Void>> outer = pendingBatch.get();
+        List<CompletableFuture<Void>> pending = outer != null ? outer : new ArrayList<>();
+        try {
+            locks.lockAll(true);
+            pendingBatch.set(pending);
+            operations.run();
+        } finally {
+            pendingBatch.set(outer);
+            locks.unlockAll(true);
+        }
+        if (outer == null) {
+            CompletableFuture.allOf(pending.toArray(CompletableFuture<?>[]::new)).join();
+        }
+    }
+
+    private CompletableFuture<Void> record(Mutation mutation) {
+        return record(mutation, durability());
+    }
+
+    private CompletableFuture<Void> record(Mutation mutation, Durability level) {
+        if (pipeline != null && pipeline.isWriter()) {
+            // Persisted with the rest of the batch when it ends
+            deferred.add(mutation);
+            if (level.compareTo(deferredLevel) > 0) {
+                deferredLevel = level;
+            }
+            return DONE;
+        }
+        return persist(mutation, level);
+    }
+
+    /** Hands the mutation to the persistence layer; the time until it is durable goes to the stats. */
+    private CompletableFuture<Void> persist(Mutation mutation, Durability level) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> durable = persistence.record(mutation, this::state, level);
+        if (durable.isDone()) {
+            Stats.INSTANCE.durability(level.getLabel(), System.nanoTime() - start);
+        } else {
+            durable.thenRun(() -> Stats.INSTANCE.durability(level.getLabel(), System.nanoTime() - start));
+        }
+        return durable;
+    }
+
+    /** Whether the calling thread must hand its write to the writer thread. */
+    private boolean offload() {
+        return pipeline != null && !pipeline.isWriter();
+    }
+
+    /** Runs the write on the writer thread, with the caller's durability, and waits for it. */
+    private <T> T pipelined(Supplier<T> write) {
+        Durability level = durability();
+        return pipeline.execute(() -> {
+            Durability outer = useDurability(level);
+            try {
+                return write.get();
+            } finally {
+                useDurability(outer);
+            }
+        }, level == Durability.SYNC);
+    }
+
+    /** Runs a write of several values on the writer thread, which holds every write lock. */
+    private void atomically(Runnable write) {
+        atomicWrites++;
+        try {
+            write.run();
+        } finally {
+            atomicWrites++;
+        }
+    }
+
+    private Durability durability() {
+        Durability level = requestDurability.get();
+        return level != null ? level : durability;
+    }
+
+    /** Waits until a sync mutation is durable; the others are answered at once. */
+    private void awaitDurable(CompletableFuture<Void> durable) {
+        if (durability() != Durability.SYNC || (pipeline != null && pipeline.isWriter())) {
+            // The writer thread leaves the waiting to the pipeline
+            return;
+        }
+        List<CompletableFuture<Void>> pending = pendingBatch.get();
+        if (pending != null) {
+            pending.add(durable);
+        } else {
+            durable.join();
+        }
+    }
+
+    /**
+     * A deep copy of the whole database, consistent across all keys. Writers are only
+     * held back while the root is copied, not while the values are.
+     */
+    public JsonObject snapshot() {
+        JsonObject root;
+        Map<String, List<KeyPath>> expired = new HashMap<>();
+        resolveAll();
+        try {
+            locks.lockAll(false);
+            root = shareRoot(view());
+            long now = System.currentTimeMillis();
+            for (String top : root.keySet().toArray(new String[0])) {
+                if (expirations.has(top)) {
+                    KeyPath path = KeyPath.of(new JsonPrimitive(top));
+                    if (expirations.isExpired(path, now)) {
+                        root.remove(top);
+                    } else {
+                        expired.put(top, expirations.expiredBelow(path, now));
+                    }
+                }
+            }
+        } finally {
+            locks.unlockAll(false);
+        }
+        try {
+            JsonObject copy = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : root.entrySet()) {
+                List<KeyPath> below = expired.get(entry.getKey());
+                copy.add(entry.getKey(), below != null
+                        ? Expirations.without(entry.getValue(), KeyPath.of(new JsonPrimitive(entry.getKey())), below)
+                        : entry.getValue().deepCopy());
+            }
+            return copy;
+        } finally {
+            sharedRoots.decrementAndGet();
+        }
+    }
+
+    /**
+     * A copy of the stored state, TTL deadlines included, for a new replica.
+     * {@code atCopy} runs while the copy is taken with writers held back, so it sees
+     * exactly the mutations recorded after the copy.
+     */
+    public JsonObject replicationSnapshot(Runnable atCopy) {
+        JsonObject root;
+        resolveAll();
+        try {
+            locks.lockAll(false);
+            atCopy.run();
+            root = shareRoot(state());
+        } finally {
+            locks.unlockAll(false);
+        }
+        try {
+            return root.deepCopy();
+        } finally {
+            sharedRoots.decrementAndGet();
+        }
+    }
+
+    /** Replaces the whole content with a copy taken by {@link #replicationSnapshot}. */
+    public void restore(JsonObject state) {
+        try {
+            locks.lockAll(true);
+            atomicWrites++;
+            Set<String> tops = new HashSet<>(database.keySet());
+            tops.addAll(lazy.keySet());
+            database.clear();
+            lazy.clear();
+            sortedKeys.clear();
+            index.clear();
+            expirations.clear();
+            for (Map.Entry<String, JsonElement> entry : state.entrySet()) {
+                if (EXPIRY_KEY.equals(entry.getKey())) {
+                    loadExpirations(entry.getValue());
+                } else {
+                    database.put(entry.getKey(), entry.getValue());
+                    sortedKeys.add(entry.getKey());
+                    tops.add(entry.getKey());
+                }
+            }
+            rebuildIndexes();
+            for (String top : tops) {
+                KeyPath path = KeyPath.of(new JsonPrimitive(top));
+                versions.changed(path);
+                for (ChangeListener listener : listeners) {
+                    listener.changed(path, database.get(top));
+                }
+            }
+        } finally {
+            atomicWrites++;
+            locks.unlockAll(true);
+        }
+    }
+
+    /** Applies a mutation received from the primary, also on a read-only replica. */
+    public void replicate(Mutation mutation) {
+        if (offload()) {
+            pipelined(() -> {
+                atomically(() -> replicate(mutation));
+                return null;
+            });
+            return;
+        }
+        Set<String> tops = new TreeSet<>();
+        if (mutation.getType() == Mutation.Type.TRANSACTION) {
+            for (Mutation each : mutation.getMutations()) {
+                tops.add(topKey(each.getKey()));
+            }
+        } else {
+            tops.add(topKey(mutation.getKey()));
+        }
+        List<Lock> writeLocks = locks.writeLocks(tops);
+        CompletableFuture<Void> durable;
+        int locked = 0;
+        try {
+            for (Lock lock : writeLocks) {
+                lock.lock();
+                locked++;
+            }
+            for (String top : tops) {
+                resolve(top);
+            }
+            apply(mutation);
+            durable = record(mutation);
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                writeLocks.get(i).unlock();
+            }
+        }
+        awaitDurable(durable);
+    }
+
+    /**
+     * Hands a point-in-time copy of the database to the persistence layer. Writers are
+     * only held back while the root is copied; the values are written out as they are,
+     * since writers copy what they change until the checkpoint is done.
+     */
+    public void checkpoint() {
+        JsonObject snapshot;
+        long position;
+        resolveAll();
+        try {
+            locks.lockAll(false);
+            snapshot = shareRoot(state());
+            position = persistence.position();
+        } finally {
+            locks.unlockAll(false);
+        }
+        try {
+            persistence.checkpoint(snapshot, position);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            sharedRoots.decrementAndGet();
+        }
+    }
+
+    /**
+     * Marks a copy of the root, which shares its values with the database, as in use
+     * until {@link #sharedRoots} is decremented. Callers hold every lock.
+     */
+    private JsonObject shareRoot(JsonObject root) {
+        sharedRoots.incrementAndGet();
+        return root;
+    }
+
+    /** Whether a write must copy the path it changes instead of changing stored values in place. */
+    private boolean copyOnWrite() {
+        return pipeline != null || sharedRoots.get() > 0;
+    }
+
+    /**
+     * Declares an index on a field inside the top-level values, such as ["person","city"],
+     * for {@link #query}. It is built at once, kept up to date by every change and rebuilt
+     * by {@link #init()}; declaring it again does nothing.
+     */
+    public void createIndex(KeyPath field) {
+        resolveAll();
+        try {
+            locks.lockAll(false);
+            for (String top : lazy.keySet()) {
+                resolve(top);
+            }
+            secondary.create(field, database);
+        } finally {
+            locks.unlockAll(false);
+        }
+    }
+
+    /** The fields that have an index, as array keys. */
+    public JsonArray indexes() {
+        JsonArray fields = new JsonArray();
+        for (KeyPath field : secondary.fields()) {
+            fields.add(field.toJson());
+        }
+        return fields;
+    }
+
+    /**
+     * The top-level keys whose value has {@code equals} at an indexed field, sorted.
+     * Without a projection the result lists the keys; with one, every key comes with
+     * the projected fields of its value, a null field standing for the whole value.
+     */
+    public JsonArray query(KeyPath field, JsonElement equals, List<KeyPath> projection) {
+        SecondaryIndexes.FieldIndex fieldIndex = secondary.get(field);
+        if (fieldIndex == null) {
+            throw new NoSuchIndexException();
+        }
+        JsonArray result = new JsonArray();
+        for (String top : fieldIndex.lookup(equals)) {
+            Lock readLock = locks.readLock(top);
+            try {
+                readLock.lock();
+                JsonElement record = database.get(top);
+                if (record != null && expirations.has(top)) {
+                    try {
+                        record = unexpired(new JsonPrimitive(top));
+                    } catch (NoSuchKeyException e) {
+                        record = null;
+                    }
+                }
+                // The key may have changed since the lookup, or hold an expired value
+                if (record == null || !equals.equals(SecondaryIndexes.field(record, field))) {
+                    continue;
+                }
+                if (projection == null) {
+                    result.add(top);
+                } else {
+                    JsonObject match = new JsonObject();
+                    match.addProperty("key", top);
+                    match.add("value", project(record, projection));
+                    result.add(match);
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /** Copies the given fields of a value into a new object of the same shape. */
+    private static JsonElement project(JsonElement record, List<KeyPath> fields) {
+        JsonObject projected = new JsonObject();
+        for (KeyPath field : fields) {
+            if (field == null) {
+                return record.deepCopy();
+            }
+            JsonElement value = SecondaryIndexes.field(record, field);
+            if (value == null) {
+                continue;
+            }
+            JsonObject parent = projected;
+            for (int i = 0; i < field.length() - 1; i++) {
+                JsonElement child = parent.get(field.get(i));
+                if (child == null || !child.isJsonObject()) {
+                    child = new JsonObject();
+                    parent.add(field.get(i), child);
+                }
+                parent = child.getAsJsonObject();
+            }
+            parent.add(field.get(field.length() - 1), value.deepCopy());
+        }
+        return projected;
+    }
+
+    /**
+     * Top-level keys in sorted order, at most {@code limit} of them: those starting with
+     * {@code prefix}, from {@code from} inclusive to {@code to} exclusive, and after
+     * {@code after}, the last key of the previous page. Null means no bound. Only a key
+     * with a TTL is locked, briefly, to check its deadline, so keys set or deleted
+     * meanwhile may or may not be listed.
+     */
+    public List<String> scan(String prefix, String from, String to, String after, int limit) {
+        String low = from;
+        if (prefix != null && (low == null || prefix.compareTo(low) > 0)) {
+            low = prefix;
+        }
+        NavigableSet<String> range;
+        if (after != null && (low == null || after.compareTo(low) >= 0)) {
+            range = sortedKeys.tailSet(after, false);
+        } else {
+            range = low != null ? sortedKeys.tailSet(low, true) : sortedKeys;
+        }
+        List<String> keys = new ArrayList<>(Math.min(limit, 1024));
+        long now = System.currentTimeMillis();
+        for (String key : range) {
+            if (keys.size() >= limit
+                    || (to != null && key.compareTo(to) >= 0)
+                    || (prefix != null && !key.startsWith(prefix))) {
+                // Sorted: no later key is in range either
+                break;
+            }
+            if (expirations.has(key) && isExpired(key, now)) {
+                continue;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /** Whether the top-level key has expired, under its read lock: writers change its deadlines. */
+    private boolean isExpired(String top, long now) {
+        Lock readLock = locks.readLock(top);
+        try {
+            readLock.lock();
+            return expirations.isExpired(KeyPath.of(new JsonPrimitive(top)), now);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /** Builds the secondary indexes from the current content. Callers hold every lock. */
+    private void rebuildIndexes() {
+        if (secondary.isEmpty()) {
+            return;
+        }
+        for (String top : lazy.keySet()) {
+            resolve(top);
+        }
+        secondary.rebuild(database);
+    }
+
+    /** The database as one object sharing the stored values. Callers must hold the locks. */
+    private JsonObject view() {
+        for (String top : lazy.keySet()) {
+            resolve(top);
+        }
+        JsonObject root = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : database.entrySet()) {
+            root.add(entry.getKey(), entry.getValue());
+        }
+        return root;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new ReadOnlyException();
+        }
+    }
+
+    /** Parses the key's value if it is still lazy. Callers hold a lock of the key. */
+    private void resolve(String top) {
+        if (lazy.isEmpty()) {
+            return;
+        }
+        LazyValue value = lazy.get(top);
+        if (value == null) {
+            return;
+        }
+        // Several readers may hold the lock: only the first one parses
+        synchronized (value) {
+            if (lazy.get(top) == value) {
+                database.put(top, value.parse());
+                lazy.remove(top);
+            }
+        }
+    }
+
+    /**
+     * Parses every value still lazy, holding one key's lock at a time, so copying
+     * the whole database afterwards does not stall writers while parsing.
+     */
+    private void resolveAll() {
+        for (String top : lazy.keySet()) {
+            Lock readLock = locks.readLock(top);
+            try {
+                readLock.lock();
+                resolve(top);
+            } finally {
+                readLock.unlock();
             }
-            writoToDataBase();
+        }
+    }
+
+    /** {@link #view()} plus the TTL deadlines: what the persistence layer stores. */
+    private JsonObject state() {
+        JsonObject root = view();
+        JsonArray deadlines = expirations.toJson();
+        if (deadlines.size() > 0) {
+            root.add(EXPIRY_KEY, deadlines);
+        }
+        return root;
+    }
+
+    private void loadExpirations(JsonElement deadlines) {
+        for (JsonElement element : deadlines.getAsJsonArray()) {
+            JsonObject deadline = element.getAsJsonObject();
+            KeyPath path = KeyPath.of(deadline.get("key"));
+            long expiresAt = deadline.get("expiresAt").getAsLong();
+            expirations.set(path, expiresAt);
+            expiryWheel.schedule(path, expiresAt);
+        }
+    }
+
+    /** The value under the key as a get sees it, or null if there is none. Callers hold the key's lock. */
+    private JsonElement current(JsonElement key) {
+        if (!expirations.has(topKey(key))) {
+            return find(key);
+        }
+        try {
+            return unexpired(key);
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    /** A get of a key that has TTLs in its subtree: expired nodes are left out. */
+    private JsonElement unexpired(JsonElement key) {
+        KeyPath path = KeyPath.of(key);
+        long now = System.currentTimeMillis();
+        JsonElement node = find(key);
+        if (node == null || expirations.isExpired(path, now)) {
+            throw new NoSuchKeyException();
+        }
+        List<KeyPath> expired = expirations.expiredBelow(path, now);
+        return expired.isEmpty() ? node : Expirations.without(node, path, expired);
+    }
+
+    /** Called by the timing wheel: deletes the key unless it was set again since. */
+    private void expire(KeyPath path, long expiresAt) {
+        if (offload()) {
+            pipelined(() -> {
+                expire(path, expiresAt);
+                return null;
+            });
+            return;
+        }
+        Lock writeLock = locks.writeLock(path.top());
+        try {
+            writeLock.lock();
+            Long current = expirations.get(path);
+            if (current == null || current != expiresAt) {
+                return;
+            }
+            resolve(path.top());
+            JsonElement key = path.length() == 1 ? new JsonPrimitive(path.top()) : path.toJson();
+            Mutation mutation = Mutation.delete(key);
+            deleteUnlocked(key);
+            // Nobody waits for an expiry to become durable
+            record(mutation, Durability.ASYNC);
         } finally {
             writeLock.unlock();
         }
+    }
+
+    private static String topKey(JsonElement key) {
+        String top = null;
+        if (key.isJsonPrimitive()) {
+            top = key.getAsString();
+        }
+        else if (key.isJsonArray() && key.getAsJsonArray().size() > 0
+                && key.getAsJsonArray().get(0).isJsonPrimitive()) {
+            top = key.getAsJsonArray().get(0).getAsString();
+        }
+        if (top == null || EXPIRY_KEY.equals(top)) {
+            throw new NoSuchKeyException();
+        }
+        return top;
+    }
+
+    private void apply(Mutation mutation) {
+        if (mutation.getType() == Mutation.Type.TRANSACTION) {
+            for (Mutation each : mutation.getMutations()) {
+                apply(each);
+            }
+        } else if (mutation.getType() == Mutation.Type.SET) {
+            setUnlocked(mutation.getKey(), mutation.getValue(), mutation.getExpiresAt());
+        } else {
+            deleteUnlocked(mutation.getKey());
+        }
+    }
+
+    /** The value under the key, or null if there is none. Callers hold the key's lock. */
+    private JsonElement find(JsonElement key) {
+        if (key.isJsonPrimitive()) {
+            return database.get(key.getAsString());
+        }
+        try {
+            return findElement(key.getAsJsonArray(), false);
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies the writes to path copies of the top-level values they touch, kept in
+     * {@code tops}, and throws whatever applying them for real would throw. The stored
+     * values stay as they are. Callers hold the write locks of the keys.
+     */
+    private void checkApplicable(List<Mutation> writes, Map<String, JsonElement> tops) {
+        for (Mutation write : writes) {
+            if (write.getType() == Mutation.Type.TRANSACTION) {
+                checkApplicable(write.getMutations(), tops);
+                continue;
+            }
+            JsonElement value = write.getType() == Mutation.Type.SET
+                    ? (write.getValue() != null ? write.getValue() : JsonNull.INSTANCE) : null;
+            JsonElement key = write.getKey();
+            if (key.isJsonPrimitive()) {
+                tops.put(key.getAsString(), value);
+            } else if (key.isJsonArray() && key.getAsJsonArray().size() == 1) {
+                tops.put(key.getAsJsonArray().get(0).getAsString(), value);
+            } else if (key.isJsonArray() && key.getAsJsonArray().size() > 1) {
+                JsonArray keys = key.getAsJsonArray();
+                String top = keys.get(0).getAsString();
+                JsonElement stored = tops.containsKey(top) ? tops.get(top) : database.get(top);
+                String last = keys.get(keys.size() - 1).getAsString();
+                tops.put(top, copyPath(stored, keys, keys.size() - 1, last, value));
+            } else {
+                throw new NoSuchKeyException();
+            }
+        }
+    }
 
+    /**
+     * {@code stored} with {@code last} set to {@code value} (removed if null) in the
+     * object at the first {@code length} of {@code keys}, created like
+     * {@link #findElement} would. Only the objects along the path are copied; the rest
+     * is shared with the stored value, which stays as it was.
+     */
+    private static JsonObject copyPath(JsonElement stored, JsonArray keys, int length, String last, JsonElement value) {
+        JsonObject root = stored != null ? shallowCopy(stored.getAsJsonObject()) : new JsonObject();
+        JsonObject node = root;
+        for (int i = 1; i < length; i++) {
+            String key = keys.get(i).getAsString();
+            JsonElement child = node.get(key);
+            JsonObject copy = child != null ? shallowCopy(child.getAsJsonObject()) : new JsonObject();
+            node.add(key, copy);
+            node = copy;
+        }
+        if (value != null) {
+            node.add(last, value);
+        } else {
+            node.remove(last);
+        }
+        return root;
+    }
+
+    private static JsonObject shallowCopy(JsonObject object) {
+        JsonObject copy = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            copy.add(entry.getKey(), entry.getValue());
+        }
+        return copy;
     }
 
     private JsonElement findElement (JsonArray keys, boolean createIfAbsent){
-        JsonElement tmp = database;
+        //Первый ключ ищем в корне бд, остальные - внутри его значения
+        String first = keys.get(0).getAsString();
+        JsonElement tmp;
         if (createIfAbsent) {
+            tmp = database.computeIfAbsent(first, k -> new JsonObject());
             //дем по массиву ключей
-            for(JsonElement key: keys){
+            for(int i = 1; i < keys.size(); i++){
+                String key = keys.get(i).getAsString();
                 //Если в бд такого ключа нет, то создаем ключ и ему пустой объект.
-                if(!tmp.getAsJsonObject().has(key.getAsString())){
-                    tmp.getAsJsonObject().add(key.getAsString(), new JsonObject());
+                if(!tmp.getAsJsonObject().has(key)){
+                    tmp.getAsJsonObject().add(key, new JsonObject());
                 }
                 //Если ключ есть, то погружаемся в объект под этим ключем.
-                tmp = tmp.getAsJsonObject().get(key.getAsString());
+                tmp = tmp.getAsJsonObject().get(key);
             }
         }
         else {
-            for(JsonElement key: keys){
+            tmp = database.get(first);
+            if (tmp == null) {
+                throw new NoSuchKeyException();
+            }
+            for(int i = 1; i < keys.size(); i++){
+                JsonElement key = keys.get(i);
                 //Если ключ не примитив или бд не имеет такого ключа
                 if(!key.isJsonPrimitive() || !tmp.getAsJsonObject().has(key.getAsString())) {
                     throw new NoSuchKeyException();
@@ -139,14 +1185,4 @@ public enum Database {
         return tmp;
     }
 
-    private void writoToDataBase(){
-        try {
-            FileWriter writer = new FileWriter("C:\\Users\\dodge\\IdeaProjects\\JSON Database\\JSON Database\\task\\src\\server\\data\\db.json");
-            writer.write(database.toString());
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
 }
@@ -0,0 +1,107 @@
+package server.database;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deadlines of keys set with a TTL, grouped by top-level key and only touched under
+ * that key's lock. Replacing or deleting a node drops the deadlines at and below it.
+ */
+class Expirations {
+
+    private final Map<String, Map<KeyPath, Long>> buckets = new ConcurrentHashMap<>();
+
+    boolean has(String top) {
+        return buckets.containsKey(top);
+    }
+
+    Long get(KeyPath path) {
+        Map<KeyPath, Long> bucket = buckets.get(path.top());
+        return bucket != null ? bucket.get(path) : null;
+    }
+
+    void set(KeyPath path, long expiresAt) {
+        buckets.computeIfAbsent(path.top(), k -> new HashMap<>()).put(path, expiresAt);
+    }
+
+    /** The node at {@code path} was replaced or removed. */
+    void cleared(KeyPath path) {
+        Map<KeyPath, Long> bucket = buckets.get(path.top());
+        if (bucket == null) {
+            return;
+        }
+        bucket.keySet().removeIf(p -> p.startsWith(path));
+        if (bucket.isEmpty()) {
+            buckets.remove(path.top());
+        }
+    }
+
+    /** Whether the path or one of its ancestors has expired. */
+    boolean isExpired(KeyPath path, long now) {
+        Map<KeyPath, Long> bucket = buckets.get(path.top());
+        if (bucket == null) {
+            return false;
+        }
+        for (Map.Entry<KeyPath, Long> entry : bucket.entrySet()) {
+            if (entry.getValue() <= now && path.startsWith(entry.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Expired paths strictly below the given one. */
+    List<KeyPath> expiredBelow(KeyPath path, long now) {
+        List<KeyPath> expired = new ArrayList<>();
+        Map<KeyPath, Long> bucket = buckets.get(path.top());
+        if (bucket != null) {
+            for (Map.Entry<KeyPath, Long> entry : bucket.entrySet()) {
+                if (entry.getValue() <= now && entry.getKey().length() > path.length()
+                        && entry.getKey().startsWith(path)) {
+                    expired.add(entry.getKey());
+                }
+            }
+        }
+        return expired;
+    }
+
+    void clear() {
+        buckets.clear();
+    }
+
+    /** Every deadline as {@code [{"key": [...], "expiresAt": millis}]}. Callers hold every lock. */
+    JsonArray toJson() {
+        JsonArray array = new JsonArray();
+        for (Map<KeyPath, Long> bucket : buckets.values()) {
+            for (Map.Entry<KeyPath, Long> entry : bucket.entrySet()) {
+                JsonObject json = new JsonObject();
+                json.add("key", entry.getKey().toJson());
+                json.addProperty("expiresAt", entry.getValue());
+                array.add(json);
+            }
+        }
+        return array;
+    }
+
+    /** Removes the expired paths from a copy of the node at {@code path}. */
+    static JsonElement without(JsonElement node, KeyPath path, List<KeyPath> expired) {
+        JsonElement copy = node.deepCopy();
+        for (KeyPath each : expired) {
+            JsonElement parent = copy;
+            for (int i = path.length(); i < each.length() - 1 && parent != null; i++) {
+                parent = parent.isJsonObject() ? parent.getAsJsonObject().get(each.get(i)) : null;
+            }
+            if (parent != null && parent.isJsonObject()) {
+                parent.getAsJsonObject().remove(each.get(each.length() - 1));
+            }
+        }
+        return copy;
+    }
+}
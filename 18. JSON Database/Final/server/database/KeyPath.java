@@ -0,0 +1,102 @@
+package server.database;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import server.exceptions.NoSuchKeyException;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A parsed key: the names from the root of the database down to one node.
+ * Array keys that were seen recently are parsed only once.
+ */
+public final class KeyPath {
+
+    private static final int CACHE_SIZE = 10_000;
+    private static final Map<JsonArray, KeyPath> parsed = new ConcurrentHashMap<>();
+
+    private final String[] keys;
+    private final int hash;
+
+    private KeyPath(String[] keys) {
+        this.keys = keys;
+        this.hash = Arrays.hashCode(keys);
+    }
+
+    public static KeyPath of(JsonElement key) {
+        if (key.isJsonPrimitive()) {
+            return new KeyPath(new String[]{key.getAsString()});
+        }
+        if (!key.isJsonArray() || key.getAsJsonArray().size() == 0) {
+            throw new NoSuchKeyException();
+        }
+        JsonArray array = key.getAsJsonArray();
+        KeyPath path = parsed.get(array);
+        if (path == null) {
+            String[] keys = new String[array.size()];
+            for (int i = 0; i < keys.length; i++) {
+                if (!array.get(i).isJsonPrimitive()) {
+                    throw new NoSuchKeyException();
+                }
+                keys[i] = array.get(i).getAsString();
+            }
+            path = new KeyPath(keys);
+            if (parsed.size() >= CACHE_SIZE) {
+                parsed.clear();
+            }
+            // The database consumes array keys while walking them, so cache a copy
+            parsed.put(array.deepCopy(), path);
+        }
+        return path;
+    }
+
+    public String top() {
+        return keys[0];
+    }
+
+    public int length() {
+        return keys.length;
+    }
+
+    public String get(int i) {
+        return keys[i];
+    }
+
+    public boolean startsWith(KeyPath prefix) {
+        if (prefix.keys.length > keys.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.keys.length; i++) {
+            if (!keys[i].equals(prefix.keys[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The path as an array key. */
+    public JsonArray toJson() {
+        JsonArray array = new JsonArray();
+        for (String key : keys) {
+            array.add(key);
+        }
+        return array;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof KeyPath && hash == ((KeyPath) o).hash && Arrays.equals(keys, ((KeyPath) o).keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(".", keys);
+    }
+}
@@ -0,0 +1,117 @@
+package server.database;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single change applied to the database: either a set of a value under a key
+ * or a delete of a key. Keys are kept in the same shape the client sent them
+ * (a primitive or an array of nested keys). A transaction groups several sets and
+ * deletes that must be persisted and replayed together. A set may carry the time
+ * (epoch millis) at which the value expires.
+ */
+public final class Mutation {
+
+    public enum Type { SET, DELETE, TRANSACTION }
+
+    private final Type type;
+    private final JsonElement key;
+    private final JsonElement value;
+    private final long expiresAt;
+    private final List<Mutation> mutations;
+
+    private Mutation(Type type, JsonElement key, JsonElement value, long expiresAt) {
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.expiresAt = expiresAt;
+        this.mutations = null;
+    }
+
+    private Mutation(List<Mutation> mutations) {
+        this.type = Type.TRANSACTION;
+        this.key = null;
+        this.value = null;
+        this.expiresAt = 0;
+        this.mutations = mutations;
+    }
+
+    public static Mutation set(JsonElement key, JsonElement value) {
+        return set(key, value, 0);
+    }
+
+    /** A set that expires at the given epoch millis, 0 for never. */
+    public static Mutation set(JsonElement key, JsonElement value, long expiresAt) {
+        return new Mutation(Type.SET, key.deepCopy(), value, expiresAt);
+    }
+
+    public static Mutation delete(JsonElement key) {
+        return new Mutation(Type.DELETE, key.deepCopy(), null, 0);
+    }
+
+    public static Mutation transaction(List<Mutation> mutations) {
+        return new Mutation(new ArrayList<>(mutations));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** Returns a copy, since the database consumes array keys while walking them. */
+    public JsonElement getKey() {
+        return key.deepCopy();
+    }
+
+    public JsonElement getValue() {
+        return value;
+    }
+
+    /** Epoch millis at which a set value expires, 0 if it does not. */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /** The sets and deletes of a transaction, in order. */
+    public List<Mutation> getMutations() {
+        return mutations;
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        if (type == Type.TRANSACTION) {
+            json.addProperty("type", "transaction");
+            JsonArray array = new JsonArray();
+            for (Mutation mutation : mutations) {
+                array.add(mutation.toJson());
+            }
+            json.add("mutations", array);
+            return json;
+        }
+        json.addProperty("type", type == Type.SET ? "set" : "delete");
+        json.add("key", key);
+        if (value != null) {
+            json.add("value", value);
+        }
+        if (expiresAt > 0) {
+            json.addProperty("expiresAt", expiresAt);
+        }
+        return json;
+    }
+
+    public static Mutation fromJson(JsonObject json) {
+        if ("transaction".equals(json.get("type").getAsString())) {
+            List<Mutation> mutations = new ArrayList<>();
+            for (JsonElement element : json.getAsJsonArray("mutations")) {
+                mutations.add(fromJson(element.getAsJsonObject()));
+            }
+            return new Mutation(mutations);
+        }
+        Type type = "set".equals(json.get("type").getAsString()) ? Type.SET : Type.DELETE;
+        long expiresAt = json.has("expiresAt") ? json.get("expiresAt").getAsLong() : 0;
+        return new Mutation(type, json.get("key"), json.get("value"), expiresAt);
+    }
+}
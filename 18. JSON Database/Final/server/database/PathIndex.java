@@ -0,0 +1,77 @@
+package server.database;
+
+import com.google.gson.JsonElement;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps full key paths of nested nodes to the nodes themselves, so a repeated deep
+ * get is a single hash lookup instead of a walk from the root. Entries are grouped
+ * by top-level key and only touched under that key's lock: readers fill the index,
+ * writers drop every entry at or below the path they replace.
+ */
+class PathIndex {
+
+    private final Map<String, Map<KeyPath, JsonElement>> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maxSize;
+
+    PathIndex(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    JsonElement get(KeyPath path) {
+        Map<KeyPath, JsonElement> bucket = buckets.get(path.top());
+        return bucket != null ? bucket.get(path) : null;
+    }
+
+    /** Caches a node found by walking the tree. Top-level nodes need no index. */
+    void put(KeyPath path, JsonElement node) {
+        if (path.length() < 2 || size.get() >= maxSize) {
+            return;
+        }
+        if (buckets.computeIfAbsent(path.top(), k -> new ConcurrentHashMap<>()).put(path, node) == null) {
+            size.incrementAndGet();
+        }
+    }
+
+    /** The node at {@code path} was replaced by {@code node}. */
+    void onSet(KeyPath path, JsonElement node) {
+        invalidate(path);
+        put(path, node);
+    }
+
+    /** The node at {@code path} was removed. */
+    void onDelete(KeyPath path) {
+        invalidate(path);
+    }
+
+    void clear() {
+        buckets.clear();
+        size.set(0);
+    }
+
+    private void invalidate(KeyPath path) {
+        Map<KeyPath, JsonElement> bucket;
+        if (path.length() == 1) {
+            bucket = buckets.remove(path.top());
+            if (bucket != null) {
+                size.addAndGet(-bucket.size());
+            }
+            return;
+        }
+        bucket = buckets.get(path.top());
+        if (bucket == null) {
+            return;
+        }
+        for (Iterator<KeyPath> it = bucket.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(path)) {
+                it.remove();
+                size.decrementAndGet();
+            }
+        }
+    }
+}
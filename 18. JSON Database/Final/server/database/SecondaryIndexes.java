@@ -0,0 +1,157 @@
+package server.database;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Indexes on fields inside the top-level values: for a field such as
+ * ["person","city"], the top-level keys whose value has each value at that field.
+ * A key is updated while its write lock is held, so the changes of one key are
+ * applied in order; different keys update concurrently.
+ */
+final class SecondaryIndexes {
+
+    private final ConcurrentMap<KeyPath, FieldIndex> indexes = new ConcurrentHashMap<>();
+
+    boolean isEmpty() {
+        return indexes.isEmpty();
+    }
+
+    Set<KeyPath> fields() {
+        return indexes.keySet();
+    }
+
+    FieldIndex get(KeyPath field) {
+        return indexes.get(field);
+    }
+
+    /** Adds an index built from the records. Callers hold back every writer. */
+    synchronized void create(KeyPath field, Map<String, JsonElement> records) {
+        if (indexes.containsKey(field)) {
+            return;
+        }
+        FieldIndex index = new FieldIndex(field);
+        records.forEach(index::update);
+        indexes.put(field, index);
+    }
+
+    /** The top-level key now has this value, null if it was deleted. */
+    void update(String top, JsonElement record) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        for (FieldIndex index : indexes.values()) {
+            index.update(top, record);
+        }
+    }
+
+    /** Builds every index again. Callers hold every lock. */
+    void rebuild(Map<String, JsonElement> records) {
+        for (FieldIndex index : indexes.values()) {
+            index.clear();
+            records.forEach(index::update);
+        }
+    }
+
+    /** The value at the field inside a record, or null if the record has none. */
+    static JsonElement field(JsonElement record, KeyPath field) {
+        JsonElement node = record;
+        for (int i = 0; i < field.length(); i++) {
+            if (node == null || !node.isJsonObject()) {
+                return null;
+            }
+            node = node.getAsJsonObject().get(field.get(i));
+        }
+        return node;
+    }
+
+    /**
+     * A copy of the value in which every number is a BigDecimal. Gson considers 31,
+     * 31L and 31.0 equal but hashes them differently, so they cannot be map keys as
+     * they are.
+     */
+    static JsonElement canonical(JsonElement value) {
+        if (value.isJsonPrimitive()) {
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isNumber()) {
+                try {
+                    return new JsonPrimitive(primitive.getAsBigDecimal().stripTrailingZeros());
+                } catch (NumberFormatException e) {
+                    // NaN or infinity: nothing else equals it anyway
+                    return primitive;
+                }
+            }
+            return primitive;
+        }
+        if (value.isJsonArray()) {
+            JsonArray copy = new JsonArray();
+            for (JsonElement element : value.getAsJsonArray()) {
+                copy.add(canonical(element));
+            }
+            return copy;
+        }
+        if (value.isJsonObject()) {
+            JsonObject copy = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+                copy.add(entry.getKey(), canonical(entry.getValue()));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    static final class FieldIndex {
+
+        private final KeyPath field;
+        // Keyed by canonical values
+        private final ConcurrentMap<JsonElement, Set<String>> keysByValue = new ConcurrentHashMap<>();
+        // The indexed value of each key, to find its entry again when the key changes
+        private final ConcurrentMap<String, JsonElement> valueByKey = new ConcurrentHashMap<>();
+
+        FieldIndex(KeyPath field) {
+            this.field = field;
+        }
+
+        /** The keys with this value at the field, sorted. */
+        Set<String> lookup(JsonElement value) {
+            Set<String> keys = keysByValue.get(canonical(value));
+            return keys != null ? new TreeSet<>(keys) : Collections.emptySet();
+        }
+
+        void update(String top, JsonElement record) {
+            JsonElement value = record != null ? field(record, field) : null;
+            if (value != null) {
+                // A copy, since the stored tree changes in place and a map key must not
+                value = canonical(value);
+            }
+            JsonElement old = value != null ? valueByKey.put(top, value) : valueByKey.remove(top);
+            if (old != null && !old.equals(value)) {
+                keysByValue.computeIfPresent(old, (v, keys) -> {
+                    keys.remove(top);
+                    return keys.isEmpty() ? null : keys;
+                });
+            }
+            if (value != null && !value.equals(old)) {
+                keysByValue.compute(value, (v, keys) -> {
+                    Set<String> result = keys != null ? keys : ConcurrentHashMap.newKeySet();
+                    result.add(top);
+                    return result;
+                });
+            }
+        }
+
+        void clear() {
+            keysByValue.clear();
+            valueByKey.clear();
+        }
+    }
+}
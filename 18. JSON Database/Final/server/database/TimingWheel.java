@@ -0,0 +1,101 @@
+package server.database;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+
+/**
+ * Hashed timing wheel for key expiry. Deadlines are hashed by tick into a fixed ring
+ * of buckets; a deadline more than one turn away waits in its bucket for the
+ * remaining number of turns. Each tick only looks at one bucket, so the cost does
+ * not grow with the number of keys that are not due yet.
+ *
+ * Entries are never cancelled: when a key is overwritten or deleted, its old entry
+ * still fires and the callback checks whether the deadline is still current.
+ */
+class TimingWheel {
+
+    private final long tickMillis;
+    private final List<Entry>[] buckets;
+    private final int mask;
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final BiConsumer<KeyPath, Long> expire;
+    private final long start = System.currentTimeMillis();
+    // Owned by the wheel thread
+    private long tick;
+    private Thread thread;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickMillis, int size, BiConsumer<KeyPath, Long> expire) {
+        this.tickMillis = tickMillis;
+        this.buckets = (List<Entry>[]) new List[Integer.highestOneBit(Math.max(2, size - 1) << 1)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.mask = buckets.length - 1;
+        this.expire = expire;
+    }
+
+    /** Calls back with the path and deadline once the deadline (epoch millis) has passed. */
+    void schedule(KeyPath path, long expiresAt) {
+        added.add(new Entry(path, expiresAt));
+        synchronized (this) {
+            if (thread == null) {
+                thread = new Thread(this::run, "ttl-expirer");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long wait = start + tick * tickMillis - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            Entry entry;
+            while ((entry = added.poll()) != null) {
+                place(entry);
+            }
+            for (Iterator<Entry> it = buckets[(int) (tick & mask)].iterator(); it.hasNext(); ) {
+                entry = it.next();
+                if (entry.rounds > 0) {
+                    entry.rounds--;
+                    continue;
+                }
+                it.remove();
+                try {
+                    expire.accept(entry.path, entry.expiresAt);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            tick++;
+        }
+    }
+
+    private void place(Entry entry) {
+        long due = Math.max(tick, (entry.expiresAt - start + tickMillis - 1) / tickMillis);
+        entry.rounds = (due - tick) / buckets.length;
+        buckets[(int) (due & mask)].add(entry);
+    }
+
+    private static final class Entry {
+        final KeyPath path;
+        final long expiresAt;
+        long rounds;
+
+        Entry(KeyPath path, long expiresAt) {
+            this.path = path;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package server.database;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version stamps of key paths for optimistic transactions. Every change takes the
+ * next value of one clock. The version of a path is that of the newest change at,
+ * above or below it, since a change above replaces the path's value and a change
+ * below modifies it. Paths nobody changed since startup have the startup version.
+ *
+ * Stamps are kept in a tree of the changed paths. Each node remembers the last
+ * change of its own path and the last change anywhere in its subtree; a change
+ * drops the nodes below it, whose stamps it supersedes. Like the database, a top
+ * key's subtree is only touched under that key's lock.
+ */
+class Versions {
+
+    private final Map<String, Node> roots = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private volatile long startup;
+
+    /**
+     * Forgets all stamps. The clock restarts from the current time in microseconds,
+     * so versions handed out before a restart do not match anything after it.
+     */
+    void clear() {
+        roots.clear();
+        startup = Math.max(clock.get() + 1, System.currentTimeMillis() * 1000);
+        clock.set(startup);
+    }
+
+    void changed(KeyPath path) {
+        long version = clock.incrementAndGet();
+        Node node = roots.computeIfAbsent(path.top(), k -> new Node());
+        node.subtree = version;
+        for (int i = 1; i < path.length(); i++) {
+            node = node.child(path.get(i));
+            node.subtree = version;
+        }
+        node.self = version;
+        node.children = null;
+    }
+
+    long get(KeyPath path) {
+        long version = startup;
+        Node node = roots.get(path.top());
+        for (int i = 1; node != null; i++) {
+            version = Math.max(version, node.self);
+            if (i == path.length()) {
+                return Math.max(version, node.subtree);
+            }
+            node = node.children != null ? node.children.get(path.get(i)) : null;
+        }
+        return version;
+    }
+
+    private static final class Node {
+        long self;
+        long subtree;
+        Map<String, Node> children;
+
+        Node child(String key) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(key, k -> new Node());
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package server.database;
+
+import server.stats.Stats;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Runs every write of the database on one thread. Callers publish their write into
+ * a preallocated ring of slots and wait on its future; the writer takes whatever has
+ * been published since it last looked as one batch, applies it between
+ * {@link Batch#begin} and {@link Batch#end}, and completes the futures. A write that
+ * asked for sync durability is completed once the whole batch is durable, the others
+ * as soon as the batch is applied.
+ *
+ * Slots are claimed in sequence order with one atomic increment, as in the LMAX
+ * Disruptor; a caller that finds the ring full waits for the writer to free a slot.
+ */
+final class WritePipeline {
+
+    /** Called on the writer thread around the writes of a batch. */
+    interface Batch {
+
+        void begin();
+
+        /** The future completes once everything written since {@link #begin} is durable. */
+        CompletableFuture<Void> end();
+    }
+
+    private static final int SPINS = 100;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final Batch batch;
+    private final Thread writer;
+    // Last sequence claimed by a caller
+    private final AtomicLong claimed = new AtomicLong(-1);
+    // Last sequence taken by the writer: its slot and all before it may be reused
+    private volatile long consumed = -1;
+    private volatile boolean sleeping;
+    private volatile boolean running = true;
+
+    // Owned by the writer thread
+    private final Slot[] taken;
+    private final Object[] results;
+    private final RuntimeException[] failures;
+
+    WritePipeline(int size, Batch batch) {
+        int capacity = 2;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        this.mask = capacity - 1;
+        this.batch = batch;
+        this.taken = new Slot[capacity];
+        this.results = new Object[capacity];
+        this.failures = new RuntimeException[capacity];
+        this.writer = new Thread(this::writeLoop, "db-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Stats.INSTANCE.queue("writePipeline", () -> (int) (claimed.get() - consumed));
+    }
+
+    boolean isWriter() {
+        return Thread.currentThread() == writer;
+    }
+
+    /** Runs the write on the writer thread and returns its result, or throws what it threw. */
+    @SuppressWarnings("unchecked")
+    <T> T execute(Supplier<T> write, boolean sync) {
+        long sequence = claimed.incrementAndGet();
+        for (int spins = 0; sequence - ring.length > consumed; spins++) {
+            // Full: the slot is still waiting for the writer
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(1_000);
+            }
+        }
+        Slot slot = ring[(int) sequence & mask];
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        slot.write = write;
+        slot.sync = sync;
+        slot.result = result;
+        slot.published = sequence;
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+        try {
+            return (T) result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** Stops the writer once it has applied everything published so far. */
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeLoop() {
+        while (running || ring[(int) (consumed + 1) & mask].published == consumed + 1) {
+            int count = take();
+            if (count == 0) {
+                await();
+                continue;
+            }
+            apply(count);
+        }
+    }
+
+    /** Moves the published writes into {@link #taken} and frees their slots. */
+    private int take() {
+        long next = consumed + 1;
+        int count = 0;
+        while (count < ring.length) {
+            Slot slot = ring[(int) (next + count) & mask];
+            if (slot.published != next + count) {
+                break;
+            }
+            Slot copy = taken[count] != null ? taken[count] : (taken[count] = new Slot());
+            copy.write = slot.write;
+            copy.sync = slot.sync;
+            copy.result = slot.result;
+            slot.write = null;
+            slot.result = null;
+            count++;
+        }
+        if (count > 0) {
+            consumed = next + count - 1;
+        }
+        return count;
+    }
+
+    private void apply(int count) {
+        CompletableFuture<Void> durable;
+        batch.begin();
+        try {
+            for (int i = 0; i < count; i++) {
+                try {
+                    results[i] = taken[i].write.get();
+                } catch (RuntimeException e) {
+                    failures[i] = e;
+                }
+            }
+        } finally {
+            durable = batch.end();
+        }
+        for (int i = 0; i < count; i++) {
+            CompletableFuture<Object> result = taken[i].result;
+            Object value = results[i];
+            RuntimeException failure = failures[i];
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else if (!taken[i].sync) {
+                result.complete(value);
+            } else {
+                durable.whenComplete((v, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            }
+            taken[i].write = null;
+            taken[i].result = null;
+            results[i] = null;
+            failures[i] = null;
+        }
+    }
+
+    /** Spins briefly for the next write, then sleeps until a caller wakes it. */
+    private void await() {
+        long next = consumed + 1;
+        Slot slot = ring[(int) next & mask];
+        for (int spins = 0; spins < SPINS; spins++) {
+            if (slot.published == next) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        sleeping = true;
+        if (slot.published != next && running) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        sleeping = false;
+    }
+
+    private static final class Slot {
+        // Sequence of the write in the slot; the volatile write publishes the other fields
+        volatile long published = -1;
+        Supplier<?> write;
+        boolean sync;
+        CompletableFuture<Object> result;
+    }
+}
@@ -0,0 +1,47 @@
+package server.database.locks;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * One lock for the whole database: a write to any key excludes every reader and writer.
+ */
+public class GlobalLocks implements KeyLocks {
+
+    private final Lock readLock;
+    private final Lock writeLock;
+
+    {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        writeLock = new TimedLock(lock, true);
+        readLock = new TimedLock(lock, false);
+    }
+
+    @Override
+    public Lock readLock(String key) {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock(String key) {
+        return writeLock;
+    }
+
+    @Override
+    public List<Lock> writeLocks(Collection<String> keys) {
+        return Collections.singletonList(writeLock);
+    }
+
+    @Override
+    public void lockAll(boolean write) {
+        (write ? writeLock : readLock).lock();
+    }
+
+    @Override
+    public void unlockAll(boolean write) {
+        (write ? writeLock : readLock).unlock();
+    }
+}
@@ -0,0 +1,25 @@
+package server.database.locks;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Locks guarding the database, looked up by top-level key. A thread holds either
+ * the lock of a single key or, through {@link #lockAll}, every lock at once; the
+ * latter are always taken in the same order, so the two never deadlock. The
+ * locks of several keys are taken through {@link #writeLocks}, in that same order.
+ */
+public interface KeyLocks {
+
+    Lock readLock(String key);
+
+    Lock writeLock(String key);
+
+    /** The distinct write locks of the keys, in the order {@link #lockAll} takes them. */
+    List<Lock> writeLocks(Collection<String> keys);
+
+    void lockAll(boolean write);
+
+    void unlockAll(boolean write);
+}
@@ -0,0 +1,72 @@
+package server.database.locks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed number of read-write locks, chosen by the hash of the top-level key.
+ * Writes to keys in different stripes run in parallel; a nested key is guarded by
+ * the stripe of its first element, so a whole subtree shares one lock.
+ */
+public class StripedLocks implements KeyLocks {
+
+    private final Lock[] readLocks;
+    private final Lock[] writeLocks;
+
+    public StripedLocks(int count) {
+        readLocks = new Lock[Math.max(1, count)];
+        writeLocks = new Lock[readLocks.length];
+        for (int i = 0; i < readLocks.length; i++) {
+            ReentrantReadWriteLock stripe = new ReentrantReadWriteLock();
+            readLocks[i] = new TimedLock(stripe, false);
+            writeLocks[i] = new TimedLock(stripe, true);
+        }
+    }
+
+    @Override
+    public Lock readLock(String key) {
+        return readLocks[index(key)];
+    }
+
+    @Override
+    public Lock writeLock(String key) {
+        return writeLocks[index(key)];
+    }
+
+    @Override
+    public List<Lock> writeLocks(Collection<String> keys) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (String key : keys) {
+            indexes.add(index(key));
+        }
+        List<Lock> result = new ArrayList<>(indexes.size());
+        for (int i : indexes) {
+            result.add(writeLocks[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public void lockAll(boolean write) {
+        for (int i = 0; i < readLocks.length; i++) {
+            (write ? writeLocks[i] : readLocks[i]).lock();
+        }
+    }
+
+    @Override
+    public void unlockAll(boolean write) {
+        for (int i = readLocks.length - 1; i >= 0; i--) {
+            (write ? writeLocks[i] : readLocks[i]).unlock();
+        }
+    }
+
+    private int index(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % readLocks.length;
+    }
+}
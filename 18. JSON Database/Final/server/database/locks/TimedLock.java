@@ -0,0 +1,82 @@
+package server.database.locks;
+
+import server.stats.Stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Counts the acquisitions of one side of a read-write lock and times the ones that
+ * have to wait. Whether a thread will wait is guessed from the lock's state before
+ * queueing on it, so only contention costs a clock read and the lock's fairness to
+ * waiting writers is kept: nobody barges in with a tryLock.
+ */
+final class TimedLock implements Lock {
+
+    private final ReentrantReadWriteLock owner;
+    private final Lock lock;
+    private final boolean write;
+
+    TimedLock(ReentrantReadWriteLock owner, boolean write) {
+        this.owner = owner;
+        this.lock = write ? owner.writeLock() : owner.readLock();
+        this.write = write;
+    }
+
+    @Override
+    public void lock() {
+        if (!contended()) {
+            lock.lock();
+            Stats.INSTANCE.lockAcquired();
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        Stats.INSTANCE.lockWaited(System.nanoTime() - start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (!contended()) {
+            lock.lockInterruptibly();
+            Stats.INSTANCE.lockAcquired();
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        Stats.INSTANCE.lockWaited(System.nanoTime() - start);
+    }
+
+    /** Whether the calling thread is likely to queue behind another holder or waiter. */
+    private boolean contended() {
+        if (owner.isWriteLockedByCurrentThread()) {
+            return false;
+        }
+        if (owner.isWriteLocked() || owner.hasQueuedThreads()) {
+            return true;
+        }
+        return write && owner.getReadLockCount() > 0;
+    }
+
+    @Override
+    public boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return lock.tryLock(time, unit);
+    }
+
+    @Override
+    public void unlock() {
+        lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+}
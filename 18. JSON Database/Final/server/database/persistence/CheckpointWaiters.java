@@ -0,0 +1,56 @@
+package server.database.persistence;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Mutations waiting to be covered by a checkpoint. They share one future, completed
+ * by the first checkpoint taken at or after the position of the last of them, so a
+ * mutation may wait one checkpoint longer than it needs but is never acknowledged early.
+ */
+final class CheckpointWaiters {
+
+    private CompletableFuture<Void> future;
+    private long position;
+
+    /**
+     * The future of a mutation recorded at the position. The first one after a
+     * checkpoint starts a new future and runs {@code onFirst}, to have the next one taken.
+     */
+    synchronized CompletableFuture<Void> add(long position, Runnable onFirst) {
+        if (future == null) {
+            future = new CompletableFuture<>();
+            onFirst.run();
+        }
+        this.position = position;
+        return future;
+    }
+
+    synchronized boolean isEmpty() {
+        return future == null;
+    }
+
+    /** A checkpoint of the state at the position was written. */
+    void written(long position) {
+        CompletableFuture<Void> covered;
+        synchronized (this) {
+            if (future == null || this.position > position) {
+                return;
+            }
+            covered = future;
+            future = null;
+        }
+        covered.complete(null);
+    }
+
+    void failed(IOException e) {
+        CompletableFuture<Void> lost;
+        synchronized (this) {
+            lost = future;
+            future = null;
+        }
+        if (lost != null) {
+            lost.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package server.database.persistence;
+
+import java.util.Locale;
+
+/**
+ * How far a mutation must get before the request that made it is answered.
+ */
+public enum Durability {
+
+    /** Applied in memory only; it reaches storage along with later writes, if at all. */
+    NONE,
+    /** Persisted in the background within a bounded delay; the response does not wait. */
+    ASYNC,
+    /** Answered once the storage engine has written and fsynced it. */
+    SYNC;
+
+    private final String label = name().toLowerCase(Locale.ROOT);
+
+    public String getLabel() {
+        return label;
+    }
+
+    /** The level named none, async or sync. */
+    public static Durability of(String label) {
+        for (Durability durability : values()) {
+            if (durability.label.equals(label)) {
+                return durability;
+            }
+        }
+        throw new IllegalArgumentException("Unknown durability: " + label);
+    }
+}
@@ -0,0 +1,140 @@
+package server.database.persistence;
+
+import com.google.gson.JsonObject;
+import server.database.Database;
+import server.database.Mutation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The original storage: the whole database is rewritten to one file on every mutation.
+ * Needs the global lock, since it reads the whole database while recording.
+ *
+ * Only {@link Durability#SYNC} mutations rewrite the file at once. An
+ * {@link Durability#ASYNC} one schedules a checkpoint within {@link #ASYNC_DELAY_MILLIS},
+ * which covers every mutation recorded until then; a {@link Durability#NONE} one is
+ * written with the next of either, or when the database is closed.
+ *
+ * Sync writes, made under the database lock, and background checkpoints, made
+ * without it, take turns on {@link #writeLock}. A checkpoint older than what is
+ * already on disk is dropped rather than renamed over it.
+ */
+public class FilePersistence implements Persistence {
+
+    static final long ASYNC_DELAY_MILLIS = 1000;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final Path file;
+    private final AtomicLong version = new AtomicLong();
+    // Serializes the writes of the file; writtenVersion only changes under it
+    private final Object writeLock = new Object();
+    private volatile long writtenVersion;
+    private final CheckpointWaiters waiters = new CheckpointWaiters();
+    // Created on the first async mutation
+    private ScheduledExecutorService scheduler;
+
+    public FilePersistence(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public boolean loadSnapshot(SnapshotReader.Sink sink, long lazyThreshold) throws IOException {
+        // Every sync write serializes the whole database, parsing any lazy value anyway
+        return SnapshotReader.read(file, sink, 0);
+    }
+
+    @Override
+    public void replay(Consumer<Mutation> applier) {
+    }
+
+    @Override
+    public CompletableFuture<Void> record(Mutation mutation, Supplier<JsonObject> state, Durability durability) {
+        long recorded = version.incrementAndGet();
+        switch (durability) {
+            case NONE:
+                return DONE;
+            case ASYNC:
+                return waiters.add(recorded, this::schedule);
+            default:
+                try {
+                    write(state.get(), recorded);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return CompletableFuture.failedFuture(e);
+                }
+                waiters.written(recorded);
+                return DONE;
+        }
+    }
+
+    @Override
+    public long position() {
+        return version.get();
+    }
+
+    @Override
+    public void checkpoint(JsonObject snapshot, long position) throws IOException {
+        try {
+            write(snapshot, position);
+        } catch (IOException e) {
+            waiters.failed(e);
+            throw e;
+        }
+        waiters.written(position);
+        if (!waiters.isEmpty()) {
+            // Recorded while the copy was being written
+            schedule();
+        }
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService background;
+        synchronized (this) {
+            background = scheduler;
+        }
+        if (background != null) {
+            background.shutdown();
+            try {
+                background.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        if (version.get() > writtenVersion) {
+            Database.INSTANCE.checkpoint();
+        }
+    }
+
+    /** Writes the state at the position, unless the file already holds a later one. */
+    private void write(JsonObject state, long position) throws IOException {
+        synchronized (writeLock) {
+            if (position <= writtenVersion) {
+                return;
+            }
+            SnapshotFile.write(file, state);
+            writtenVersion = position;
+        }
+    }
+
+    private synchronized void schedule() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "file-writer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(Database.INSTANCE::checkpoint, ASYNC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
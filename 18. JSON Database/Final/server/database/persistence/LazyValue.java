@@ -0,0 +1,81 @@
+package server.database.persistence;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A value of a snapshot file that is left as raw bytes by {@link SnapshotReader}
+ * and only parsed when it is first used. The bytes usually belong to a mapped file,
+ * possibly to several mapped regions of it, which stay mapped until every lazy
+ * value of them has been parsed or dropped.
+ */
+public final class LazyValue {
+
+    private final ByteBuffer[] parts;
+    private final long size;
+
+    LazyValue(ByteBuffer... parts) {
+        this.parts = parts;
+        long total = 0;
+        for (ByteBuffer part : parts) {
+            total += part.remaining();
+        }
+        this.size = total;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public JsonElement parse() {
+        return JsonParser.parseReader(new InputStreamReader(new BufferInputStream(parts), StandardCharsets.UTF_8));
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer[] buffers;
+        private int current;
+
+        BufferInputStream(ByteBuffer[] parts) {
+            this.buffers = new ByteBuffer[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                buffers[i] = parts[i].duplicate();
+            }
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer buffer = next();
+            return buffer != null ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            ByteBuffer buffer = next();
+            if (buffer == null) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer buffer = next();
+            return buffer != null ? buffer.remaining() : 0;
+        }
+
+        /** The buffer to read from, or null at the end of the last one. */
+        private ByteBuffer next() {
+            while (current < buffers.length && !buffers[current].hasRemaining()) {
+                current++;
+            }
+            return current < buffers.length ? buffers[current] : null;
+        }
+    }
+}
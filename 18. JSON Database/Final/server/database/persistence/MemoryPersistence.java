@@ -0,0 +1,34 @@
+package server.database.persistence;
+
+import com.google.gson.JsonObject;
+import server.database.Mutation;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps nothing: the database lives only as long as the process.
+ */
+public class MemoryPersistence implements Persistence {
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    @Override
+    public boolean loadSnapshot(SnapshotReader.Sink sink, long lazyThreshold) {
+        return false;
+    }
+
+    @Override
+    public void replay(Consumer<Mutation> applier) {
+    }
+
+    @Override
+    public CompletableFuture<Void> record(Mutation mutation, Supplier<JsonObject> state, Durability durability) {
+        return DONE;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,49 @@
+package server.database.persistence;
+
+import com.google.gson.JsonObject;
+import server.database.Mutation;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Storage engine behind {@link server.database.Database}.
+ * The database calls {@link #record} while holding the write lock of the mutated
+ * key, so mutations of one key arrive in the order they were applied; mutations of
+ * keys under different locks may arrive concurrently. The database waits on the
+ * returned future only after the lock is released.
+ */
+public interface Persistence {
+
+    /**
+     * Loads the last persisted state into the sink. Top-level values of at least
+     * {@code lazyThreshold} bytes may be handed over unparsed, 0 means never.
+     * Returns false if there is no persisted state.
+     */
+    boolean loadSnapshot(SnapshotReader.Sink sink, long lazyThreshold) throws IOException;
+
+    /** Replays mutations persisted after the snapshot returned by {@link #loadSnapshot}. */
+    void replay(Consumer<Mutation> applier) throws IOException;
+
+    /**
+     * Records an applied mutation. The future completes once it has reached the
+     * requested durability; for {@link Durability#ASYNC} that is when the background
+     * write is done, though the database does not wait for it.
+     * {@code state} builds a view of the whole database and is only safe to call
+     * when a single lock guards everything.
+     */
+    CompletableFuture<Void> record(Mutation mutation, Supplier<JsonObject> state, Durability durability);
+
+    /** Position of the last recorded mutation. Read while every database lock is held. */
+    default long position() {
+        return 0;
+    }
+
+    /** Persists a point-in-time copy of the database taken at the given position. */
+    default void checkpoint(JsonObject snapshot, long position) throws IOException {
+    }
+
+    void close();
+}
@@ -0,0 +1,41 @@
+package server.database.persistence;
+
+import com.google.gson.JsonObject;
+import server.stats.Stats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class SnapshotFile {
+
+    // Tells apart the temporary files of writes that overlap
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private SnapshotFile() {}
+
+    /**
+     * Writes the snapshot next to the target, fsyncs it and renames it over the target,
+     * so readers only ever see the old or the new file. Returns the number of bytes written.
+     */
+    static long write(Path target, JsonObject snapshot) throws IOException {
+        long start = System.nanoTime();
+        Path tmp = target.resolveSibling(target.getFileName() + "." + sequence.incrementAndGet() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(snapshot.toString());
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        long size = Files.size(tmp);
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Stats.INSTANCE.storageWrite(size, System.nanoTime() - start);
+        return size;
+    }
+}
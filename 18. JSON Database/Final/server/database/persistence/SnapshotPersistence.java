@@ -0,0 +1,133 @@
+package server.database.persistence;
+
+import com.google.gson.JsonObject;
+import server.database.Database;
+import server.database.Mutation;
+import server.stats.Stats;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Same file format as {@link FilePersistence}, but mutations only mark the database
+ * dirty. A background thread checkpoints a point-in-time copy at most every
+ * {@code intervalMillis}, which bounds how much can be lost on a crash.
+ *
+ * That is what {@link Durability#ASYNC} asks for. A {@link Durability#SYNC} mutation
+ * has a checkpoint taken at once and waits for it; sync mutations made while one is
+ * being written share the next. Checkpoint counts, times and sizes are reported in
+ * the "snapshots" section of the stats.
+ */
+public class SnapshotPersistence implements Persistence {
+
+    private final Path file;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "snapshot-checkpointer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong version = new AtomicLong();
+    private volatile long persistedVersion;
+    private final CheckpointWaiters waiters = new CheckpointWaiters();
+
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private volatile long lastNanos;
+    private volatile long maxNanos;
+    private volatile long lastBytes;
+
+    public SnapshotPersistence(Path file, long intervalMillis) {
+        this.file = file;
+        scheduler.scheduleWithFixedDelay(this::checkpointIfDirty, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        Stats.INSTANCE.section("snapshots", this::toJson);
+    }
+
+    @Override
+    public boolean loadSnapshot(SnapshotReader.Sink sink, long lazyThreshold) throws IOException {
+        // Checkpoints replace the file by rename, so the mapped original stays intact
+        return SnapshotReader.read(file, sink, lazyThreshold);
+    }
+
+    @Override
+    public void replay(Consumer<Mutation> applier) {
+    }
+
+    @Override
+    public CompletableFuture<Void> record(Mutation mutation, Supplier<JsonObject> state, Durability durability) {
+        long recorded = version.incrementAndGet();
+        switch (durability) {
+            case NONE:
+                return CompletableFuture.completedFuture(null);
+            case ASYNC:
+                return waiters.add(recorded, () -> {});
+            default:
+                CompletableFuture<Void> written = waiters.add(recorded, () -> {});
+                scheduler.execute(this::checkpointIfDirty);
+                return written;
+        }
+    }
+
+    @Override
+    public long position() {
+        return version.get();
+    }
+
+    @Override
+    public void checkpoint(JsonObject snapshot, long position) throws IOException {
+        long start = System.nanoTime();
+        long bytes;
+        try {
+            bytes = SnapshotFile.write(file, snapshot);
+        } catch (IOException e) {
+            waiters.failed(e);
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        persistedVersion = position;
+        waiters.written(position);
+        snapshots.incrementAndGet();
+        totalNanos.addAndGet(elapsed);
+        totalBytes.addAndGet(bytes);
+        lastNanos = elapsed;
+        maxNanos = Math.max(maxNanos, elapsed);
+        lastBytes = bytes;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        checkpointIfDirty();
+    }
+
+    private JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", snapshots.get());
+        json.addProperty("lastMillis", TimeUnit.NANOSECONDS.toMillis(lastNanos));
+        json.addProperty("maxMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos));
+        json.addProperty("totalMillis", TimeUnit.NANOSECONDS.toMillis(totalNanos.get()));
+        json.addProperty("lastBytes", lastBytes);
+        json.addProperty("totalBytes", totalBytes.get());
+        return json;
+    }
+
+    private void checkpointIfDirty() {
+        if (version.get() > persistedVersion) {
+            Database.INSTANCE.checkpoint();
+        }
+    }
+}
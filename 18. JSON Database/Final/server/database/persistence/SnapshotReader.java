@@ -0,0 +1,224 @@
+package server.database.persistence;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads a snapshot file one top-level entry at a time, without first reading the
+ * whole file into a String. The file is memory-mapped, in regions of 1GB since a
+ * single mapping cannot exceed 2GB, and a byte scanner finds where each value
+ * starts and ends; values at least {@code lazyThreshold} bytes
+ * long are handed over unparsed as a {@link LazyValue}, the rest are parsed
+ * straight from the mapping.
+ *
+ * Lazy values must only be used for files that are replaced by rename and never
+ * rewritten in place, since a mapped file that shrinks underneath the reader
+ * crashes the JVM on access.
+ */
+public final class SnapshotReader {
+
+    private static final int REGION_BITS = 30;
+    private static final long REGION_MASK = (1L << REGION_BITS) - 1;
+
+    public interface Sink {
+        void put(String key, JsonElement value);
+
+        void putLazy(String key, LazyValue value);
+    }
+
+    private SnapshotReader() {}
+
+    /** Reads the file into the sink. Returns false if the file does not exist or is empty. */
+    public static boolean read(Path file, Sink sink, long lazyThreshold) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        long size = Files.size(file);
+        if (size == 0) {
+            return false;
+        }
+        ByteBuffer[] regions = new ByteBuffer[(int) ((size + REGION_MASK) >>> REGION_BITS)];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < regions.length; i++) {
+                long start = (long) i << REGION_BITS;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_MASK + 1, size - start));
+            }
+        }
+        new Scanner(regions, size).readObject(sink, lazyThreshold);
+        return true;
+    }
+
+    private static final class Scanner {
+        private final ByteBuffer[] regions;
+        private final long limit;
+        private long pos;
+
+        Scanner(ByteBuffer[] regions, long limit) {
+            this.regions = regions;
+            this.limit = limit;
+        }
+
+        void readObject(Sink sink, long lazyThreshold) throws IOException {
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    String key = readKey();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    long start = pos;
+                    skipValue();
+                    LazyValue value = new LazyValue(slice(start, pos));
+                    if (lazyThreshold > 0 && value.size() >= lazyThreshold) {
+                        sink.putLazy(key, value);
+                    } else {
+                        sink.put(key, value.parse());
+                    }
+                    skipWhitespace();
+                    byte c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw malformed("Expected ',' or '}'");
+                    }
+                }
+            }
+            skipWhitespace();
+            if (pos < limit) {
+                throw malformed("Data after the snapshot object");
+            }
+        }
+
+        private String readKey() throws IOException {
+            long start = pos;
+            expect('"');
+            boolean escaped = false;
+            byte c;
+            while ((c = next()) != '"') {
+                if (c == '\\') {
+                    escaped = true;
+                    pos++;
+                }
+            }
+            byte[] bytes = new byte[(int) (pos - start)];
+            int copied = 0;
+            for (ByteBuffer part : slice(start, pos)) {
+                int length = part.remaining();
+                part.get(bytes, copied, length);
+                copied += length;
+            }
+            String quoted = new String(bytes, StandardCharsets.UTF_8);
+            if (escaped) {
+                return JsonParser.parseString(quoted).getAsString();
+            }
+            return quoted.substring(1, quoted.length() - 1);
+        }
+
+        private void skipValue() throws IOException {
+            byte c = peek();
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = peek();
+                    if (c == '"') {
+                        skipString();
+                        continue;
+                    }
+                    pos++;
+                    if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                } while (depth > 0);
+            } else {
+                // A number, true, false or null
+                while (pos < limit && !isDelimiter(at(pos))) {
+                    pos++;
+                }
+            }
+        }
+
+        private void skipString() throws IOException {
+            expect('"');
+            byte c;
+            while ((c = next()) != '"') {
+                if (c == '\\') {
+                    pos++;
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < limit && isWhitespace(at(pos))) {
+                pos++;
+            }
+        }
+
+        private void expect(char expected) throws IOException {
+            if (next() != expected) {
+                throw malformed("Expected '" + expected + "'");
+            }
+        }
+
+        private byte peek() throws IOException {
+            if (pos >= limit) {
+                throw malformed("Unexpected end of file");
+            }
+            return at(pos);
+        }
+
+        private byte next() throws IOException {
+            byte c = peek();
+            pos++;
+            return c;
+        }
+
+        private byte at(long position) {
+            return regions[(int) (position >>> REGION_BITS)].get((int) (position & REGION_MASK));
+        }
+
+        /** The bytes from start to end, one buffer for each region they lie in. */
+        private ByteBuffer[] slice(long start, long end) {
+            int first = (int) (start >>> REGION_BITS);
+            int last = (int) ((end - 1) >>> REGION_BITS);
+            ByteBuffer[] parts = new ByteBuffer[last - first + 1];
+            for (int i = first; i <= last; i++) {
+                long regionStart = (long) i << REGION_BITS;
+                int from = (int) (Math.max(start, regionStart) - regionStart);
+                int to = (int) (Math.min(end, regionStart + regions[i].limit()) - regionStart);
+                parts[i - first] = regions[i].slice(from, to - from);
+            }
+            return parts;
+        }
+
+        private MalformedJsonException malformed(String message) {
+            return new MalformedJsonException(message + " at byte " + pos);
+        }
+
+        private static boolean isWhitespace(byte c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        }
+
+        private static boolean isDelimiter(byte c) {
+            return c == ',' || c == '}' || c == ']' || isWhitespace(c);
+        }
+    }
+}
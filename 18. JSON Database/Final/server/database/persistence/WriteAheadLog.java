@@ -0,0 +1,285 @@
+package server.database.persistence;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import server.database.Database;
+import server.database.Mutation;
+import server.stats.Stats;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only storage. Every mutation becomes one line in the current log segment,
+ * and a single flusher thread writes whatever has queued up since its last fsync
+ * as one batch (group commit). A batch holding only {@link Durability#NONE} records
+ * is written without an fsync; they become durable with the next batch that has one.
+ * Once the active segment grows past a threshold
+ * the database is checkpointed into {@code snapshot-<lsn>.json} and the segments
+ * it covers are removed.
+ *
+ * Directory layout:
+ * <pre>
+ *   snapshot-00000000000000000042.json   state after mutation 42
+ *   wal-0000000003.log                   {"lsn":43,"type":"set",...} one per line
+ * </pre>
+ */
+public class WriteAheadLog implements Persistence {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final int MAX_BATCH = 1024;
+
+    private final Path directory;
+    private final Path legacyFile;
+    private final long checkpointBytes;
+
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService checkpointer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "wal-checkpointer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    // Assigned together with the queue position, so the log is in lsn order
+    private long lastLsn;
+
+    // Owned by the flusher thread
+    private FileChannel segment;
+    private int segmentNumber;
+    private long segmentSize;
+
+    private volatile int checkpointFromSegment = -1;
+
+    public WriteAheadLog(Path directory, Path legacyFile, long checkpointBytes) {
+        this.directory = directory;
+        this.legacyFile = legacyFile;
+        this.checkpointBytes = checkpointBytes;
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    @Override
+    public boolean loadSnapshot(SnapshotReader.Sink sink, long lazyThreshold) throws IOException {
+        Files.createDirectories(directory);
+        Path snapshot = latest(SNAPSHOT_PREFIX);
+        Path source = snapshot != null ? snapshot : legacyFile;
+        if (snapshot != null) {
+            lastLsn = number(snapshot, SNAPSHOT_PREFIX);
+        }
+        if (source == null) {
+            return false;
+        }
+        // Snapshots are written once and only ever deleted, which keeps a mapping valid
+        return SnapshotReader.read(source, sink, lazyThreshold);
+    }
+
+    @Override
+    public void replay(Consumer<Mutation> applier) throws IOException {
+        long snapshotLsn = lastLsn;
+        for (Path path : list(SEGMENT_PREFIX)) {
+            segmentNumber = Math.max(segmentNumber, (int) number(path, SEGMENT_PREFIX));
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JsonObject record;
+                    try {
+                        record = JsonParser.parseString(line).getAsJsonObject();
+                    } catch (JsonParseException | IllegalStateException e) {
+                        // A torn write at the tail of a segment: nothing after it was acknowledged
+                        break;
+                    }
+                    long lsn = record.get("lsn").getAsLong();
+                    if (lsn > snapshotLsn) {
+                        applier.accept(Mutation.fromJson(record));
+                        lastLsn = Math.max(lastLsn, lsn);
+                    }
+                }
+            }
+        }
+        // Never append behind a possibly torn tail
+        openSegment(segmentNumber + 1);
+        flusher.start();
+    }
+
+    @Override
+    public CompletableFuture<Void> record(Mutation mutation, Supplier<JsonObject> state, Durability durability) {
+        // Serialized here, under the key's lock, since the value may be changed by later mutations
+        String record = mutation.toJson().toString();
+        Entry entry;
+        synchronized (queue) {
+            String line = "{\"lsn\":" + (++lastLsn) + "," + record.substring(1) + "\n";
+            entry = new Entry(line.getBytes(StandardCharsets.UTF_8), durability != Durability.NONE);
+            queue.add(entry);
+        }
+        return entry.future;
+    }
+
+    @Override
+    public long position() {
+        synchronized (queue) {
+            return lastLsn;
+        }
+    }
+
+    @Override
+    public void checkpoint(JsonObject snapshot, long position) throws IOException {
+        try {
+            writeSnapshot(snapshot, position);
+        } finally {
+            checkpointFromSegment = -1;
+        }
+    }
+
+    private void writeSnapshot(JsonObject snapshot, long position) throws IOException {
+        Path target = directory.resolve(String.format("%s%020d.json", SNAPSHOT_PREFIX, position));
+        SnapshotFile.write(target, snapshot);
+
+        for (Path old : list(SNAPSHOT_PREFIX)) {
+            if (!old.equals(target)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        int keepFrom = checkpointFromSegment;
+        for (Path old : list(SEGMENT_PREFIX)) {
+            if (keepFrom >= 0 && number(old, SEGMENT_PREFIX) < keepFrom) {
+                Files.deleteIfExists(old);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+            if (segment != null) {
+                segment.close();
+            }
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace();
+        }
+        checkpointer.shutdown();
+    }
+
+    private void flushLoop() {
+        List<Entry> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                write(batch);
+                batch.forEach(e -> e.future.complete(null));
+            } catch (IOException e) {
+                batch.forEach(entry -> entry.future.completeExceptionally(e));
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+            if (segmentSize >= checkpointBytes && checkpointFromSegment < 0) {
+                requestCheckpoint();
+            }
+        }
+    }
+
+    private void write(List<Entry> batch) throws IOException {
+        long start = System.nanoTime();
+        int size = 0;
+        boolean force = false;
+        for (Entry entry : batch) {
+            size += entry.line.length;
+            force |= entry.force;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Entry entry : batch) {
+            buffer.put(entry.line);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        if (force) {
+            segment.force(false);
+        }
+        segmentSize += size;
+        Stats.INSTANCE.storageWrite(size, System.nanoTime() - start);
+    }
+
+    private void requestCheckpoint() {
+        try {
+            // Everything in the segments before this one is already applied, so the
+            // snapshot taken next covers them
+            openSegment(segmentNumber + 1);
+            checkpointFromSegment = segmentNumber;
+            checkpointer.execute(Database.INSTANCE::checkpoint);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void openSegment(int number) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segmentNumber = number;
+        segment = FileChannel.open(directory.resolve(String.format("%s%010d.log", SEGMENT_PREFIX, number)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = segment.size();
+    }
+
+    private Path latest(String prefix) throws IOException {
+        List<Path> paths = list(prefix);
+        return paths.isEmpty() ? null : paths.get(paths.size() - 1);
+    }
+
+    private List<Path> list(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(prefix))
+                    .filter(p -> !p.getFileName().toString().endsWith(".tmp"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long number(Path path, String prefix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.indexOf('.')));
+    }
+
+    private static final class Entry {
+        final byte[] line;
+        final boolean force;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Entry(byte[] line, boolean force) {
+            this.line = line;
+            this.force = force;
+        }
+    }
+}
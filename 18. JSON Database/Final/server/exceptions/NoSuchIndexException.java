@@ -0,0 +1,7 @@
+package server.exceptions;
+
+public class NoSuchIndexException extends RuntimeException{
+    public NoSuchIndexException() {
+        super("No such index");
+    }
+}
@@ -0,0 +1,7 @@
+package server.exceptions;
+
+public class OverloadedException extends RuntimeException{
+    public OverloadedException() {
+        super("Overloaded");
+    }
+}
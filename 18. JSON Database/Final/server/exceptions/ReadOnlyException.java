@@ -0,0 +1,7 @@
+package server.exceptions;
+
+public class ReadOnlyException extends RuntimeException{
+    public ReadOnlyException() {
+        super("Read-only replica");
+    }
+}
@@ -0,0 +1,7 @@
+package server.exceptions;
+
+public class TransactionConflictException extends RuntimeException{
+    public TransactionConflictException() {
+        super("Conflict");
+    }
+}
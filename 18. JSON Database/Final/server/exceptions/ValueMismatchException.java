@@ -0,0 +1,7 @@
+package server.exceptions;
+
+public class ValueMismatchException extends RuntimeException{
+    public ValueMismatchException() {
+        super("Value mismatch");
+    }
+}
@@ -0,0 +1,7 @@
+package server.exceptions;
+
+public class WrongTypeException extends RuntimeException{
+    public WrongTypeException() {
+        super("Wrong value type");
+    }
+}
@@ -0,0 +1,221 @@
+package server.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-prefixed UTF-8 framing without the 64 KB limit. A message is sent as one or
+ * more chunks, each preceded by a four byte header: the highest bit says that more
+ * chunks of the same message follow, the rest is the chunk length. A message is
+ * encoded and written chunk by chunk as its text comes in through {@link #writer},
+ * so a blocking sender never holds the whole message, as text or encoded.
+ */
+public class BinaryFraming implements Framing {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_MESSAGE = 256 * 1024 * 1024;
+
+    private static final int HEADER = 4;
+    private static final int MORE = 0x80000000;
+
+    private final int chunkSize;
+
+    public BinaryFraming(int chunkSize) {
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+    }
+
+    @Override
+    public void write(DataOutputStream out, String message) throws IOException {
+        try (Writer chunks = new ChunkWriter(out)) {
+            chunks.write(message);
+        }
+    }
+
+    @Override
+    public Writer writer(DataOutputStream out) {
+        return new ChunkWriter(out);
+    }
+
+    @Override
+    public String read(DataInputStream in) throws IOException {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        int header;
+        do {
+            header = in.readInt();
+            int length = header & ~MORE;
+            checkSize(message.size() + (long) length);
+            byte[] chunk = new byte[length];
+            in.readFully(chunk);
+            message.write(chunk);
+        } while ((header & MORE) != 0);
+        return message.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ByteBuffer encode(String message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length() + HEADER);
+        try (Writer chunks = new ChunkWriter(bytes)) {
+            chunks.write(message);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Override
+    public Decoder newDecoder() {
+        return new ChunkDecoder();
+    }
+
+    @Override
+    public int bufferSize() {
+        return chunkSize + HEADER;
+    }
+
+    /**
+     * Encodes text into a chunk and writes the chunk out whenever it is full. A full
+     * chunk is only sent once more text arrives, so the last chunk, sent on close,
+     * is the one without the {@link #MORE} bit.
+     */
+    private final class ChunkWriter extends Writer {
+
+        private final OutputStream out;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final CharBuffer pending = CharBuffer.allocate(8192);
+        private final ByteBuffer chunk = ByteBuffer.allocate(HEADER + chunkSize);
+        private boolean closed;
+
+        ChunkWriter(OutputStream out) {
+            this.out = out;
+            chunk.position(HEADER);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            while (length > 0) {
+                int n = Math.min(length, pending.remaining());
+                pending.put(chars, offset, n);
+                offset += n;
+                length -= n;
+                if (!pending.hasRemaining()) {
+                    encode(false);
+                }
+            }
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+            while (length > 0) {
+                int n = Math.min(length, pending.remaining());
+                pending.put(string, offset, offset + n);
+                offset += n;
+                length -= n;
+                if (!pending.hasRemaining()) {
+                    encode(false);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Chunks go out as they fill up; the caller flushes the stream itself
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            encode(true);
+            while (encoder.flush(chunk).isOverflow()) {
+                send(true);
+            }
+            send(false);
+        }
+
+        /** Encodes the pending text, sending every chunk it fills. */
+        private void encode(boolean endOfInput) throws IOException {
+            pending.flip();
+            while (true) {
+                CoderResult result = encoder.encode(pending, chunk, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (!result.isOverflow()) {
+                    break;
+                }
+                send(true);
+            }
+            // An unpaired high surrogate waits for the rest of the text
+            pending.compact();
+        }
+
+        private void send(boolean more) throws IOException {
+            int length = chunk.position() - HEADER;
+            chunk.putInt(0, more ? length | MORE : length);
+            out.write(chunk.array(), 0, chunk.position());
+            chunk.clear().position(HEADER);
+        }
+    }
+
+    private static void checkSize(long size) throws IOException {
+        if (size > MAX_MESSAGE) {
+            throw new IOException("Message is longer than " + MAX_MESSAGE + " bytes");
+        }
+    }
+
+    /** Copies chunk payloads out of the connection buffer as they arrive. */
+    private static final class ChunkDecoder implements Decoder {
+
+        private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        private final byte[] scratch = new byte[8192];
+        private int chunkRemaining = -1;
+        private boolean last;
+
+        @Override
+        public String decode(ByteBuffer buffer) throws IOException {
+            while (true) {
+                if (chunkRemaining < 0) {
+                    if (buffer.remaining() < HEADER) {
+                        return null;
+                    }
+                    int header = buffer.getInt();
+                    chunkRemaining = header & ~MORE;
+                    last = (header & MORE) == 0;
+                    checkSize(message.size() + (long) chunkRemaining);
+                }
+                int n = Math.min(chunkRemaining, buffer.remaining());
+                if (buffer.hasArray()) {
+                    message.write(buffer.array(), buffer.arrayOffset() + buffer.position(), n);
+                    buffer.position(buffer.position() + n);
+                } else {
+                    // Direct buffer: copy through a reusable scratch array
+                    for (int left = n; left > 0; ) {
+                        int step = Math.min(left, scratch.length);
+                        buffer.get(scratch, 0, step);
+                        message.write(scratch, 0, step);
+                        left -= step;
+                    }
+                }
+                chunkRemaining -= n;
+                if (chunkRemaining > 0) {
+                    return null;
+                }
+                chunkRemaining = -1;
+                if (last) {
+                    String result = message.toString(StandardCharsets.UTF_8);
+                    message.reset();
+                    return result;
+                }
+            }
+        }
+    }
+}
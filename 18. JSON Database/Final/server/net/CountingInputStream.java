@@ -0,0 +1,33 @@
+package server.net;
+
+import server.stats.Stats;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Adds the bytes read from a socket to the network stats. */
+public class CountingInputStream extends FilterInputStream {
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            Stats.INSTANCE.bytesRead(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = in.read(buffer, offset, length);
+        if (n > 0) {
+            Stats.INSTANCE.bytesRead(n);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,27 @@
+package server.net;
+
+import server.stats.Stats;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Adds the bytes written to a socket to the network stats. */
+public class CountingOutputStream extends FilterOutputStream {
+
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        Stats.INSTANCE.bytesWritten(1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        Stats.INSTANCE.bytesWritten(length);
+    }
+}
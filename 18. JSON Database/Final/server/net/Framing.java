@@ -0,0 +1,56 @@
+package server.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * How messages are delimited on a connection. Client and server must agree on it.
+ */
+public interface Framing {
+
+    void write(DataOutputStream out, String message) throws IOException;
+
+    String read(DataInputStream in) throws IOException;
+
+    /**
+     * A writer for one message, which is sent by the time the writer is closed. Closing
+     * it does not close {@code out}. By default the message is collected and written
+     * whole, as a framing that prefixes the whole message with its length has to.
+     */
+    default Writer writer(DataOutputStream out) {
+        return new StringWriter() {
+            @Override
+            public void close() throws IOException {
+                Framing.this.write(out, toString());
+            }
+        };
+    }
+
+    ByteBuffer encode(String message) throws IOException;
+
+    /** A decoder keeps the state of a partially received message, so use one per connection. */
+    Decoder newDecoder();
+
+    /** Size of the read buffer a connection needs for this framing. */
+    int bufferSize();
+
+    interface Decoder {
+        /** Consumes bytes from a buffer in read mode. Returns null until a whole message is available. */
+        String decode(ByteBuffer buffer) throws IOException;
+    }
+
+    static Framing of(String name, int chunkSize) {
+        switch (name) {
+            case "utf":
+                return new UtfFraming();
+            case "binary":
+                return new BinaryFraming(chunkSize);
+            default:
+                throw new IllegalArgumentException("Unknown framing: " + name);
+        }
+    }
+}
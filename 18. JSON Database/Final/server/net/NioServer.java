@@ -0,0 +1,336 @@
+package server.net;
+
+import server.cli.Admission;
+import server.cli.RequestProcessor;
+import server.cli.Subscription;
+import server.cli.requests.Request;
+import server.cli.requests.RequestReader;
+import server.cli.requests.Response;
+import server.cli.requests.ResponseWriter;
+import server.stats.Stats;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single selector thread serving persistent connections. With the default
+ * {@link UtfFraming} frames are the same {@code writeUTF} encoding the blocking
+ * server uses, so existing clients work unchanged, but a connection stays open and
+ * may carry any number of requests. Connections read into direct buffers.
+ * Requests are executed on a worker pool, one at a time per connection, so
+ * responses always come back in request order.
+ *
+ * A connection with too many requests in flight is not read until some of them
+ * complete, so a client that pipelines faster than it is served is held back by
+ * TCP flow control. Requests beyond the server-wide {@link Admission} limit are
+ * answered "Overloaded" without reaching a worker; the worker queue is bounded by
+ * that limit.
+ */
+public class NioServer {
+
+    private final InetSocketAddress address;
+    private final Framing framing;
+    private final int maxConnections;
+    private final int maxPipelined;
+    private final ThreadPoolExecutor workers;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    // Paused connections with room for requests again
+    private final Queue<Connection> pendingReads = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+    private int connections;
+
+    public NioServer(InetSocketAddress address, Framing framing, int maxConnections, int workerThreads,
+                     int maxPipelined) {
+        this.address = address;
+        this.framing = framing;
+        this.maxConnections = maxConnections;
+        this.maxPipelined = Math.max(1, maxPipelined);
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        Stats.INSTANCE.queue("workers", () -> workers.getQueue().size());
+    }
+
+    public void run() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 50);
+        serverChannel.configureBlocking(false);
+        SelectionKey acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        while (running) {
+            selector.select();
+
+            Connection pending;
+            while ((pending = pendingWrites.poll()) != null) {
+                if (pending.key.isValid()) {
+                    pending.key.interestOps(pending.key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+            while ((pending = pendingReads.poll()) != null) {
+                try {
+                    resume(pending);
+                } catch (IOException e) {
+                    close(pending, acceptKey);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(acceptKey);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read((Connection) key.attachment());
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write((Connection) key.attachment());
+                    }
+                } catch (IOException e) {
+                    close((Connection) key.attachment(), acceptKey);
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    private void accept(SelectionKey acceptKey) throws IOException {
+        SocketChannel channel;
+        while ((maxConnections <= 0 || connections < maxConnections)
+                && (channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(key, channel, framing));
+            connections++;
+            Stats.INSTANCE.connectionOpened();
+        }
+        if (maxConnections > 0 && connections >= maxConnections) {
+            // Leave further clients in the listen backlog until someone disconnects
+            acceptKey.interestOps(0);
+        }
+    }
+
+    private void close(Connection connection, SelectionKey acceptKey) {
+        if (connection == null) {
+            return;
+        }
+        connection.key.cancel();
+        if (connection.subscription != null) {
+            connection.subscription.close();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connections--;
+        Stats.INSTANCE.connectionClosed();
+        if (acceptKey.isValid()) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        int read = connection.channel.read(connection.in);
+        if (read < 0) {
+            throw new IOException("Connection closed by client");
+        }
+        Stats.INSTANCE.bytesRead(read);
+        decode(connection);
+    }
+
+    /** Hands the buffered requests over, until the connection has maxPipelined in flight. */
+    private void decode(Connection connection) throws IOException {
+        connection.in.flip();
+        boolean full;
+        String message;
+        while (!(full = connection.inFlight.get() >= maxPipelined)
+                && (message = connection.decoder.decode(connection.in)) != null) {
+            String request = message;
+            connection.inFlight.incrementAndGet();
+            if (Admission.INSTANCE.tryAcquire()) {
+                connection.tail = connection.tail.thenRunAsync(() -> handle(connection, request), workers);
+            } else {
+                // Behind the responses still due, but without taking a worker
+                connection.tail = connection.tail.thenRun(() -> reject(connection));
+            }
+        }
+        connection.in.compact();
+        if (full) {
+            // Frames may be left in the buffer, so pause even if requests completed meanwhile
+            connection.paused = true;
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            Stats.INSTANCE.readPaused();
+            if (connection.inFlight.get() < maxPipelined) {
+                // Completed meanwhile, possibly without seeing the pause
+                resume(connection);
+            }
+        }
+    }
+
+    private void resume(Connection connection) throws IOException {
+        if (!connection.paused || !connection.key.isValid()) {
+            return;
+        }
+        connection.paused = false;
+        connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+        decode(connection);
+    }
+
+    private void handle(Connection connection, String message) {
+        Response response;
+        try {
+            Request request = RequestReader.read(message);
+            response = connection.processor.process(request);
+            connection.exit = RequestProcessor.isExit(request);
+        } catch (RuntimeException e) {
+            response = RequestProcessor.error(e);
+        } finally {
+            Admission.INSTANCE.release();
+        }
+        respond(connection, response);
+        Subscription subscription = connection.processor.takeSubscription();
+        if (subscription != null) {
+            // Events follow the response above: the selector only looks at them from now on
+            if (connection.subscription != null) {
+                connection.subscription.close();
+            }
+            connection.subscription = subscription;
+            subscription.onEvent(() -> {
+                pendingWrites.add(connection);
+                selector.wakeup();
+            });
+        }
+        pendingWrites.add(connection);
+        completed(connection);
+        selector.wakeup();
+    }
+
+    private void reject(Connection connection) {
+        respond(connection, Admission.overloaded());
+        pendingWrites.add(connection);
+        completed(connection);
+        selector.wakeup();
+    }
+
+    private void respond(Connection connection, Response response) {
+        try {
+            connection.out.add(encode(connection.writer, response));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void completed(Connection connection) {
+        if (connection.inFlight.decrementAndGet() < maxPipelined && connection.paused) {
+            pendingReads.add(connection);
+        }
+    }
+
+    private ByteBuffer encode(ResponseWriter writer, Response response) throws IOException {
+        try {
+            return framing.encode(writer.write(response));
+        } catch (UTFDataFormatException e) {
+            // The client would wait forever for a response that cannot be framed
+            return framing.encode(writer.write(RequestProcessor.error(e)));
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = nextBuffer(connection)) != null) {
+            Stats.INSTANCE.bytesWritten(connection.channel.write(buffer));
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            connection.out.poll();
+        }
+        connection.key.interestOps(connection.paused ? 0 : SelectionKey.OP_READ);
+        if (connection.exit) {
+            running = false;
+        }
+    }
+
+    /**
+     * The next queued response, or else the next event of the connection's watch.
+     * Events are only taken when the socket keeps up, so a slow client fills its
+     * subscription queue and meets the overflow policy instead of holding back writers.
+     */
+    private ByteBuffer nextBuffer(Connection connection) throws IOException {
+        ByteBuffer buffer = connection.out.peek();
+        Subscription subscription = connection.subscription;
+        if (buffer == null && subscription != null) {
+            String event = subscription.poll();
+            if (event != null) {
+                try {
+                    buffer = framing.encode(event);
+                } catch (UTFDataFormatException e) {
+                    buffer = framing.encode(RequestProcessor.error(e).toJSON());
+                }
+                connection.out.add(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    private static final class Connection {
+        final SelectionKey key;
+        final SocketChannel channel;
+        final ByteBuffer in;
+        final Framing.Decoder decoder;
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final RequestProcessor processor = new RequestProcessor();
+        // Used by one request at a time, in order
+        final ResponseWriter writer = new ResponseWriter();
+        volatile boolean exit;
+        volatile Subscription subscription;
+        final AtomicInteger inFlight = new AtomicInteger();
+        // Not read while set; written by the selector thread
+        volatile boolean paused;
+        // Only touched by the selector thread
+        CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+        Connection(SelectionKey key, SocketChannel channel, Framing framing) {
+            this.key = key;
+            this.channel = channel;
+            this.in = ByteBuffer.allocateDirect(framing.bufferSize());
+            this.decoder = framing.newDecoder();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package server.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The original {@code writeUTF}/{@code readUTF} framing: a two byte length followed by
+ * modified UTF-8, so no message can be longer than 65535 encoded bytes.
+ */
+public class UtfFraming implements Framing {
+
+    private static final int HEADER = 2;
+    private static final int MAX_FRAME = HEADER + 0xFFFF;
+
+    @Override
+    public void write(DataOutputStream out, String message) throws IOException {
+        out.writeUTF(message);
+    }
+
+    @Override
+    public String read(DataInputStream in) throws IOException {
+        return in.readUTF();
+    }
+
+    @Override
+    public ByteBuffer encode(String message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length() + HEADER);
+        new DataOutputStream(bytes).writeUTF(message);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Override
+    public Decoder newDecoder() {
+        return buffer -> {
+            if (buffer.remaining() < HEADER) {
+                return null;
+            }
+            int length = HEADER + (buffer.getShort(buffer.position()) & 0xFFFF);
+            if (buffer.remaining() < length) {
+                return null;
+            }
+            byte[] frame = new byte[length];
+            buffer.get(frame);
+            return new DataInputStream(new ByteArrayInputStream(frame)).readUTF();
+        };
+    }
+
+    @Override
+    public int bufferSize() {
+        return MAX_FRAME;
+    }
+}
@@ -0,0 +1,165 @@
+package server.replication;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import server.database.Database;
+import server.database.Mutation;
+import server.net.Framing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * The replica's side of replication: connects to the primary, replaces the local
+ * database with the primary's bootstrap copy and then applies every streamed
+ * mutation. After a lost connection it reconnects and bootstraps again.
+ */
+public class Replica implements Runnable {
+
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private final InetSocketAddress primary;
+    private final Framing framing;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+
+    private volatile boolean connected;
+    private volatile long appliedSeq;
+    private volatile long primarySeq;
+    // Primary's clock when it recorded the oldest mutation not applied yet
+    private volatile long behindSince;
+    private volatile long bootstraps;
+
+    public Replica(InetSocketAddress primary, Framing framing) {
+        this.primary = primary;
+        this.framing = framing;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "replica");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(primary);
+                // Heartbeats arrive every second, silence means the primary is gone
+                s.setSoTimeout(READ_TIMEOUT_MILLIS);
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                framing.write(dos, "{\"type\":\"replicate\"}");
+                dos.flush();
+                bootstrap(JsonParser.parseString(framing.read(dis)).getAsJsonObject());
+                connected = true;
+                while (running) {
+                    apply(JsonParser.parseString(framing.read(dis)).getAsJsonObject());
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    System.out.println("Replication from " + primary + " interrupted: " + e.getMessage());
+                }
+            } finally {
+                connected = false;
+            }
+            sleep();
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    public long getPrimarySeq() {
+        return primarySeq;
+    }
+
+    /** Mutations the primary recorded that are not applied here yet, as far as this replica knows. */
+    public long getLagEvents() {
+        return Math.max(0, primarySeq - appliedSeq);
+    }
+
+    /** How long ago the primary recorded the oldest mutation not applied here yet. */
+    public long getLagMillis() {
+        long since = behindSince;
+        return getLagEvents() == 0 || since == 0 ? 0 : Math.max(0, System.currentTimeMillis() - since);
+    }
+
+    public long getBootstraps() {
+        return bootstraps;
+    }
+
+    public InetSocketAddress getPrimary() {
+        return primary;
+    }
+
+    private void bootstrap(JsonObject response) throws IOException {
+        if (!"OK".equals(response.get("response").getAsString())) {
+            throw new IOException("Primary refused: " + response);
+        }
+        JsonObject value = response.getAsJsonObject("value");
+        Database.INSTANCE.restore(value.getAsJsonObject("state"));
+        appliedSeq = value.get("seq").getAsLong();
+        primarySeq = appliedSeq;
+        behindSince = 0;
+        bootstraps++;
+    }
+
+    private void apply(JsonObject event) throws IOException {
+        long seq = event.has("seq") ? event.get("seq").getAsLong() : 0;
+        long time = event.has("time") ? event.get("time").getAsLong() : 0;
+        switch (event.get("event").getAsString()) {
+            case "mutation":
+                primarySeq = Math.max(primarySeq, seq);
+                Database.INSTANCE.replicate(Mutation.fromJson(event.getAsJsonObject("mutation")));
+                appliedSeq = seq;
+                behindSince = appliedSeq < primarySeq ? time : 0;
+                break;
+            case "heartbeat":
+                if (seq > primarySeq) {
+                    primarySeq = seq;
+                }
+                if (appliedSeq < primarySeq && behindSince == 0) {
+                    behindSince = time;
+                }
+                break;
+            case "overflow":
+                throw new IOException("Fell too far behind the primary");
+            default:
+                break;
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(RECONNECT_MILLIS);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package server.replication;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import server.cli.Subscription;
+import server.exceptions.NoSuchRequestException;
+
+import java.util.function.Consumer;
+
+/**
+ * The replication role of this server: a primary that replicas may connect to,
+ * or a read-only replica of another server.
+ */
+public enum Replication {
+
+    INSTANCE;
+
+    private ReplicationLog log;
+    private Replica replica;
+
+    Replication() {}
+
+    public void setPrimary(ReplicationLog log) {
+        this.log = log;
+    }
+
+    public void setReplica(Replica replica) {
+        this.replica = replica;
+    }
+
+    /** Starts following the primary, if this server is a replica. Call after the database is initialized. */
+    public void start() {
+        if (replica != null) {
+            replica.start();
+        }
+    }
+
+    public void stop() {
+        if (replica != null) {
+            replica.stop();
+        }
+    }
+
+    /** See {@link ReplicationLog#subscribe}. Replicas cannot be replicated from. */
+    public JsonObject subscribe(Consumer<Subscription> started) {
+        if (log == null) {
+            throw new NoSuchRequestException();
+        }
+        return log.subscribe(started);
+    }
+
+    public JsonObject status() {
+        JsonObject status = new JsonObject();
+        if (replica != null) {
+            status.addProperty("role", "replica");
+            status.addProperty("primary", replica.getPrimary().getHostString() + ":" + replica.getPrimary().getPort());
+            status.addProperty("connected", replica.isConnected());
+            status.addProperty("seq", replica.getAppliedSeq());
+            status.addProperty("primarySeq", replica.getPrimarySeq());
+            status.addProperty("lagEvents", replica.getLagEvents());
+            status.addProperty("lagMillis", replica.getLagMillis());
+            status.addProperty("bootstraps", replica.getBootstraps());
+        } else if (log != null) {
+            status.addProperty("role", "primary");
+            status.addProperty("seq", log.getSeq());
+            JsonArray replicas = new JsonArray();
+            for (Subscription each : log.getReplicas()) {
+                JsonObject info = new JsonObject();
+                // Events recorded but not yet written to the replica's connection
+                info.addProperty("pending", each.getPending());
+                replicas.add(info);
+            }
+            status.add("replicas", replicas);
+        } else {
+            status.addProperty("role", "none");
+        }
+        return status;
+    }
+}
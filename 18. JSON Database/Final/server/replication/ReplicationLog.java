@@ -0,0 +1,147 @@
+package server.replication;
+
+import com.google.gson.JsonObject;
+import server.cli.Subscription;
+import server.database.Database;
+import server.database.Mutation;
+import server.database.persistence.Durability;
+import server.database.persistence.Persistence;
+import server.database.persistence.SnapshotReader;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The primary's side of replication. Wraps the real storage and numbers every
+ * recorded mutation; connected replicas receive each one as an event:
+ * <pre>
+ *   {"event":"mutation","seq":42,"time":1700000000000,"mutation":{"type":"set",...}}
+ *   {"event":"heartbeat","seq":42,"time":1700000000000}   once a second
+ * </pre>
+ * A replica that falls a whole queue behind is cut off and has to bootstrap again.
+ */
+public class ReplicationLog implements Persistence {
+
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    private final Persistence delegate;
+    private final int queueSize;
+    private final List<Subscription> replicas = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "replication-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    // Assigned together with the offer to the replicas, so they see mutations in seq order
+    private long seq;
+
+    public ReplicationLog(Persistence delegate, int queueSize) {
+        this.delegate = delegate;
+        this.queueSize = queueSize;
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public Persistence getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Starts streaming to a new replica. Returns the bootstrap value
+     * {@code {"seq": n, "state": {...}}}; the subscription then carries every mutation after n.
+     */
+    public JsonObject subscribe(Consumer<Subscription> started) {
+        Subscription replica = new Subscription(null, queueSize, Subscription.OverflowPolicy.CLOSE, replicas::remove);
+        long[] at = new long[1];
+        JsonObject state = Database.INSTANCE.replicationSnapshot(() -> {
+            synchronized (this) {
+                at[0] = seq;
+                replicas.add(replica);
+            }
+        });
+        started.accept(replica);
+        JsonObject bootstrap = new JsonObject();
+        bootstrap.addProperty("seq", at[0]);
+        bootstrap.add("state", state);
+        return bootstrap;
+    }
+
+    public synchronized long getSeq() {
+        return seq;
+    }
+
+    public List<Subscription> getReplicas() {
+        return replicas;
+    }
+
+    @Override
+    public boolean loadSnapshot(SnapshotReader.Sink sink, long lazyThreshold) throws IOException {
+        return delegate.loadSnapshot(sink, lazyThreshold);
+    }
+
+    @Override
+    public void replay(Consumer<Mutation> applier) throws IOException {
+        delegate.replay(applier);
+    }
+
+    @Override
+    public CompletableFuture<Void> record(Mutation mutation, Supplier<JsonObject> state, Durability durability) {
+        CompletableFuture<Void> durable = delegate.record(mutation, state, durability);
+        synchronized (this) {
+            seq++;
+            if (!replicas.isEmpty()) {
+                // Serialized here, under the key's lock, since the value may be changed later
+                JsonObject event = event("mutation");
+                event.add("mutation", mutation.toJson());
+                String json = event.toString();
+                for (Subscription replica : replicas) {
+                    replica.offer(json);
+                }
+            }
+        }
+        return durable;
+    }
+
+    @Override
+    public long position() {
+        return delegate.position();
+    }
+
+    @Override
+    public void checkpoint(JsonObject snapshot, long position) throws IOException {
+        delegate.checkpoint(snapshot, position);
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdown();
+        for (Subscription replica : replicas) {
+            replica.close();
+        }
+        delegate.close();
+    }
+
+    private synchronized void heartbeat() {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        String json = event("heartbeat").toString();
+        for (Subscription replica : replicas) {
+            replica.offer(json);
+        }
+    }
+
+    private JsonObject event(String type) {
+        JsonObject event = new JsonObject();
+        event.addProperty("event", type);
+        event.addProperty("seq", seq);
+        event.addProperty("time", System.currentTimeMillis());
+        return event;
+    }
+}
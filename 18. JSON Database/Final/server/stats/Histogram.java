@@ -0,0 +1,88 @@
+package server.stats;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with log-linear buckets: every power of two is split into
+ * 16 buckets, so a percentile is off by at most 1/16 of its value. Recording is
+ * lock-free and allocates nothing. Reads are not atomic with concurrent writes,
+ * which only blurs a percentile by the values recorded meanwhile.
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** The value below which the given fraction of the recorded values fall, in nanoseconds. */
+    public long percentile(double fraction) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** Count, mean, p50, p99, p999 and max, in microseconds. */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        long total = count.sum();
+        json.addProperty("count", total);
+        json.addProperty("mean", total > 0 ? micros(sum.sum() / total) : 0);
+        json.addProperty("p50", micros(percentile(0.5)));
+        json.addProperty("p99", micros(percentile(0.99)));
+        json.addProperty("p999", micros(percentile(0.999)));
+        json.addProperty("max", micros(max.get()));
+        return json;
+    }
+
+    private static double micros(long nanos) {
+        return Math.round(nanos / 100.0) / 10.0;
+    }
+
+    static int index(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((value >>> shift) & (SUB - 1));
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        int shift = index / SUB - 1;
+        long lower = (long) (SUB + index % SUB) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,176 @@
+package server.stats;
+
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Server counters and latency histograms, reported by the "stats" request and, if
+ * configured, printed periodically. Every method called per request or per lock is
+ * lock-free and allocates nothing once the command type has been seen.
+ */
+public enum Stats {
+    INSTANCE;
+
+    private final long started = System.currentTimeMillis();
+
+    // By command class, named after it: GetCommand is "get"
+    private final Map<String, Histogram> commands = new ConcurrentSkipListMap<>();
+    private final ClassValue<Histogram> byClass = new ClassValue<>() {
+        @Override
+        protected Histogram computeValue(Class<?> type) {
+            String name = type.getSimpleName().replaceFirst("Command$", "");
+            name = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+            return commands.computeIfAbsent(name, n -> new Histogram());
+        }
+    };
+
+    private final LongAdder locksAcquired = new LongAdder();
+    private final LongAdder locksContended = new LongAdder();
+    private final Histogram lockWait = new Histogram();
+
+    private final LongAdder storageBytes = new LongAdder();
+    private final Histogram storageWrites = new Histogram();
+    // By durability level: time from recording a mutation until the storage engine is done with it
+    private final Map<String, Histogram> durability = new ConcurrentSkipListMap<>();
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder readsPaused = new LongAdder();
+    // Depth of the queues in front of request execution, read when reported
+    private final Map<String, IntSupplier> queues = new ConcurrentSkipListMap<>();
+    // Reported by the components that keep them, such as the response cache
+    private final Map<String, Supplier<JsonObject>> sections = new ConcurrentSkipListMap<>();
+
+    private ScheduledExecutorService dumper;
+
+    public void command(Class<?> type, long nanos) {
+        byClass.get(type).record(nanos);
+    }
+
+    /** A lock taken at once. */
+    public void lockAcquired() {
+        locksAcquired.increment();
+    }
+
+    /** A lock taken after waiting for another holder. */
+    public void lockWaited(long nanos) {
+        locksAcquired.increment();
+        locksContended.increment();
+        lockWait.record(nanos);
+    }
+
+    /** A write to disk, fsync included. */
+    public void storageWrite(long bytes, long nanos) {
+        storageBytes.add(bytes);
+        storageWrites.record(nanos);
+    }
+
+    public void durability(String level, long nanos) {
+        durability.computeIfAbsent(level, l -> new Histogram()).record(nanos);
+    }
+
+    public void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void connectionOpened() {
+        connections.incrementAndGet();
+        accepted.increment();
+    }
+
+    public void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /** A request answered "Overloaded" without being executed. */
+    public void requestRejected() {
+        rejected.increment();
+    }
+
+    /** A connection with too many requests in flight, no longer read until some complete. */
+    public void readPaused() {
+        readsPaused.increment();
+    }
+
+    public void queue(String name, IntSupplier depth) {
+        queues.put(name, depth);
+    }
+
+    /** Adds a section to the report, read when reported. */
+    public void section(String name, Supplier<JsonObject> report) {
+        sections.put(name, report);
+    }
+
+    /** Latencies are in microseconds. */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("uptimeMillis", System.currentTimeMillis() - started);
+
+        JsonObject commandLatency = new JsonObject();
+        commands.forEach((name, histogram) -> commandLatency.add(name, histogram.toJson()));
+        json.add("commands", commandLatency);
+
+        JsonObject locks = new JsonObject();
+        locks.addProperty("acquired", locksAcquired.sum());
+        locks.addProperty("contended", locksContended.sum());
+        locks.add("wait", lockWait.toJson());
+        json.add("locks", locks);
+
+        JsonObject storage = new JsonObject();
+        storage.addProperty("bytesWritten", storageBytes.sum());
+        storage.add("writes", storageWrites.toJson());
+        JsonObject levels = new JsonObject();
+        durability.forEach((level, histogram) -> levels.add(level, histogram.toJson()));
+        storage.add("durability", levels);
+        json.add("storage", storage);
+
+        JsonObject network = new JsonObject();
+        network.addProperty("bytesRead", bytesRead.sum());
+        network.addProperty("bytesWritten", bytesWritten.sum());
+        network.addProperty("connections", connections.get());
+        network.addProperty("accepted", accepted.sum());
+        json.add("network", network);
+
+        JsonObject admission = new JsonObject();
+        admission.addProperty("rejected", rejected.sum());
+        admission.addProperty("readsPaused", readsPaused.sum());
+        JsonObject depths = new JsonObject();
+        queues.forEach((name, depth) -> depths.addProperty(name, depth.getAsInt()));
+        admission.add("queues", depths);
+        json.add("admission", admission);
+
+        sections.forEach((name, report) -> json.add(name, report.get()));
+        return json;
+    }
+
+    /** Prints the stats every interval, 0 turns it off. */
+    public synchronized void startDump(long intervalMillis) {
+        if (intervalMillis <= 0 || dumper != null) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> System.out.println("Stats: " + toJson()),
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
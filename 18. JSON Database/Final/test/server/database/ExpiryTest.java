@@ -0,0 +1,109 @@
+package server.database;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.database.locks.StripedLocks;
+import server.database.persistence.MemoryPersistence;
+import server.exceptions.NoSuchKeyException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpiryTest {
+
+    @BeforeEach
+    void open() {
+        Database.INSTANCE.setPersistence(new MemoryPersistence());
+        Database.INSTANCE.setLocks(new StripedLocks(16));
+        Database.INSTANCE.init();
+    }
+
+    @AfterEach
+    void close() {
+        Database.INSTANCE.close();
+    }
+
+    @Test
+    void wheelFiresNoEarlierThanDeadline() throws InterruptedException {
+        Map<String, Long> fired = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        // Four buckets of 10 ms: the last deadline is several turns away
+        TimingWheel wheel = new TimingWheel(10, 4, (path, expiresAt) -> {
+            fired.put(path.top(), System.currentTimeMillis() - expiresAt);
+            latch.countDown();
+        });
+        long now = System.currentTimeMillis();
+        wheel.schedule(KeyPath.of(new JsonPrimitive("past")), now - 1000);
+        wheel.schedule(KeyPath.of(new JsonPrimitive("soon")), now + 30);
+        wheel.schedule(KeyPath.of(new JsonPrimitive("later")), now + 250);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (long late : fired.values()) {
+            assertTrue(late >= 0, "fired before its deadline");
+        }
+    }
+
+    @Test
+    void expiredKeyIsGoneBeforeTheWheelRemovesIt() {
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(1), 1);
+        sleep(10);
+
+        assertNull(get("a"));
+        assertFalse(Database.INSTANCE.scan(null, null, null, null, 10).contains("a"));
+    }
+
+    @Test
+    void wheelDeletesExpiredNestedKey() {
+        Database.INSTANCE.set(key("[\"a\",\"keep\"]"), new JsonPrimitive(1));
+        Database.INSTANCE.set(key("[\"a\",\"drop\"]"), new JsonPrimitive(2), 50);
+        assertEquals(new JsonPrimitive(2), get("[\"a\",\"drop\"]"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Database.INSTANCE.hasTtl(KeyPath.of(key("a"))) && System.currentTimeMillis() < deadline) {
+            sleep(20);
+        }
+
+        assertFalse(Database.INSTANCE.hasTtl(KeyPath.of(key("a"))));
+        assertEquals(JsonParser.parseString("{\"keep\":1}"), get("a"));
+    }
+
+    @Test
+    void setWithoutTtlClearsTheDeadline() {
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(1), 50);
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(2));
+        sleep(100);
+
+        assertEquals(new JsonPrimitive(2), get("a"));
+    }
+
+    private static JsonElement get(String key) {
+        try {
+            return Database.INSTANCE.get(key(key));
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    private static JsonElement key(String key) {
+        return key.startsWith("[") ? JsonParser.parseString(key) : new JsonPrimitive(key);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package server.database;
+
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.database.locks.StripedLocks;
+import server.database.persistence.MemoryPersistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ScanTest {
+
+    @BeforeEach
+    void open() {
+        Database.INSTANCE.setPersistence(new MemoryPersistence());
+        Database.INSTANCE.setLocks(new StripedLocks(16));
+        Database.INSTANCE.init();
+        for (String key : List.of("user:3", "order:1", "user:1", "user:2", "zone", "user:10")) {
+            Database.INSTANCE.set(new JsonPrimitive(key), new JsonPrimitive(key));
+        }
+    }
+
+    @AfterEach
+    void close() {
+        Database.INSTANCE.close();
+    }
+
+    @Test
+    void prefixListsMatchingKeysInOrder() {
+        assertEquals(List.of("user:1", "user:10", "user:2", "user:3"),
+                Database.INSTANCE.scan("user:", null, null, null, 100));
+    }
+
+    @Test
+    void rangeIncludesFromAndExcludesTo() {
+        assertEquals(List.of("user:10", "user:2"),
+                Database.INSTANCE.scan(null, "user:10", "user:3", null, 100));
+    }
+
+    @Test
+    void pagesCoverEveryKeyOnce() {
+        List<String> all = new ArrayList<>();
+        String after = null;
+        while (true) {
+            List<String> page = Database.INSTANCE.scan(null, null, null, after, 2);
+            all.addAll(page);
+            if (page.size() < 2) {
+                break;
+            }
+            after = page.get(page.size() - 1);
+        }
+
+        assertEquals(List.of("order:1", "user:1", "user:10", "user:2", "user:3", "zone"), all);
+    }
+
+    @Test
+    void deletedKeyIsNotListed() {
+        Database.INSTANCE.delete(new JsonPrimitive("user:2"));
+
+        assertEquals(List.of("user:1", "user:10", "user:3"), Database.INSTANCE.scan("user:", null, null, null, 100));
+    }
+}
@@ -0,0 +1,76 @@
+package server.database;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.database.locks.StripedLocks;
+import server.database.persistence.MemoryPersistence;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SecondaryIndexTest {
+
+    private static final KeyPath CITY = KeyPath.of(JsonParser.parseString("[\"address\",\"city\"]"));
+
+    @BeforeEach
+    void open() {
+        Database.INSTANCE.setPersistence(new MemoryPersistence());
+        Database.INSTANCE.setLocks(new StripedLocks(16));
+        Database.INSTANCE.init();
+    }
+
+    @AfterEach
+    void close() {
+        Database.INSTANCE.close();
+    }
+
+    @Test
+    void indexCoversValuesStoredBeforeItWasCreated() {
+        Database.INSTANCE.set(new JsonPrimitive("bob"), JsonParser.parseString("{\"address\":{\"city\":\"Oslo\"}}"));
+        Database.INSTANCE.set(new JsonPrimitive("amy"), JsonParser.parseString("{\"address\":{\"city\":\"Oslo\"}}"));
+        Database.INSTANCE.set(new JsonPrimitive("cal"), JsonParser.parseString("{\"address\":{\"city\":\"Rome\"}}"));
+
+        Database.INSTANCE.createIndex(CITY);
+
+        assertEquals(keys("amy", "bob"), Database.INSTANCE.query(CITY, new JsonPrimitive("Oslo"), null));
+    }
+
+    @Test
+    void indexFollowsSetsNestedSetsAndDeletes() {
+        Database.INSTANCE.createIndex(CITY);
+        Database.INSTANCE.set(new JsonPrimitive("amy"), JsonParser.parseString("{\"address\":{\"city\":\"Oslo\"}}"));
+        Database.INSTANCE.set(new JsonPrimitive("bob"), JsonParser.parseString("{\"address\":{\"city\":\"Oslo\"}}"));
+
+        Database.INSTANCE.set(JsonParser.parseString("[\"amy\",\"address\",\"city\"]"), new JsonPrimitive("Rome"));
+        Database.INSTANCE.delete(new JsonPrimitive("bob"));
+
+        assertEquals(keys(), Database.INSTANCE.query(CITY, new JsonPrimitive("Oslo"), null));
+        assertEquals(keys("amy"), Database.INSTANCE.query(CITY, new JsonPrimitive("Rome"), null));
+    }
+
+    @Test
+    void projectionReturnsTheRequestedFields() {
+        Database.INSTANCE.createIndex(CITY);
+        Database.INSTANCE.set(new JsonPrimitive("amy"),
+                JsonParser.parseString("{\"name\":\"Amy\",\"address\":{\"city\":\"Oslo\"}}"));
+
+        JsonArray result = Database.INSTANCE.query(CITY, new JsonPrimitive("Oslo"),
+                List.of(KeyPath.of(JsonParser.parseString("[\"name\"]"))));
+
+        assertEquals(1, result.size());
+        assertEquals(new JsonPrimitive("Amy"), result.get(0).getAsJsonObject().getAsJsonObject("value").get("name"));
+    }
+
+    private static JsonArray keys(String... keys) {
+        JsonArray array = new JsonArray();
+        for (String key : keys) {
+            array.add(key);
+        }
+        return array;
+    }
+}
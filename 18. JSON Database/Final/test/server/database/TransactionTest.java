@@ -0,0 +1,174 @@
+package server.database;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.database.locks.StripedLocks;
+import server.database.persistence.Durability;
+import server.database.persistence.MemoryPersistence;
+import server.exceptions.NoSuchKeyException;
+import server.exceptions.TransactionConflictException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TransactionTest {
+
+    private final List<Mutation> recorded = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void open() {
+        Database.INSTANCE.setPersistence(new MemoryPersistence() {
+            @Override
+            public CompletableFuture<Void> record(Mutation mutation, Supplier<JsonObject> state, Durability durability) {
+                recorded.add(mutation);
+                return super.record(mutation, state, durability);
+            }
+        });
+        Database.INSTANCE.setLocks(new StripedLocks(16));
+        Database.INSTANCE.init();
+    }
+
+    @AfterEach
+    void close() {
+        Database.INSTANCE.close();
+    }
+
+    @Test
+    void appliesAllWritesAndRecordsThemAsOne() {
+        Database.INSTANCE.set(key("b"), new JsonPrimitive(0));
+        recorded.clear();
+
+        Database.INSTANCE.transaction(Map.of(), List.of(
+                Mutation.set(key("a"), new JsonPrimitive(1)),
+                Mutation.set(key("[\"c\",\"d\"]"), new JsonPrimitive(2)),
+                Mutation.delete(key("b"))));
+
+        assertEquals(new JsonPrimitive(1), get("a"));
+        assertEquals(new JsonPrimitive(2), get("[\"c\",\"d\"]"));
+        assertNull(get("b"));
+        assertEquals(1, recorded.size());
+        assertEquals(Mutation.Type.TRANSACTION, recorded.get(0).getType());
+        assertEquals(3, recorded.get(0).getMutations().size());
+    }
+
+    @Test
+    void staleReadChangesNothing() {
+        Database.INSTANCE.set(key("a"), new JsonPrimitive(1));
+        long version = Database.INSTANCE.version(key("a"));
+        Database.INSTANCE.set(key("a"), new JsonPrimitive(2));
+        recorded.clear();
+
+        assertThrows(TransactionConflictException.class, () -> Database.INSTANCE.transaction(
+                Map.of(KeyPath.of(key("a")), version),
+                List.of(Mutation.set(key("a"), new JsonPrimitive(3)), Mutation.set(key("b"), new JsonPrimitive(3)))));
+
+        assertEquals(new JsonPrimitive(2), get("a"));
+        assertNull(get("b"));
+        assertEquals(0, recorded.size());
+    }
+
+    @Test
+    void writeThatCannotApplyChangesNothing() {
+        Database.INSTANCE.set(key("a"), new JsonPrimitive(1));
+        Database.INSTANCE.set(key("b"), new JsonPrimitive("not an object"));
+        recorded.clear();
+
+        // The nested set fails only after the set of a would have been applied
+        assertThrows(RuntimeException.class, () -> Database.INSTANCE.transaction(Map.of(), List.of(
+                Mutation.set(key("a"), new JsonPrimitive(2)),
+                Mutation.set(key("[\"b\",\"c\"]"), new JsonPrimitive(2)))));
+
+        assertEquals(new JsonPrimitive(1), get("a"));
+        assertEquals(new JsonPrimitive("not an object"), get("b"));
+        assertEquals(0, recorded.size());
+    }
+
+    @Test
+    void concurrentIncrementsAreNotLost() throws InterruptedException {
+        Database.INSTANCE.set(key("counter"), new JsonPrimitive(0));
+        int threads = 4;
+        int increments = 250;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < increments; i++) {
+                    while (!tryIncrement()) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(new JsonPrimitive(threads * increments), get("counter"));
+    }
+
+    @Test
+    void readersNeverSeeHalfATransaction() throws InterruptedException {
+        Database.INSTANCE.set(key("a"), new JsonPrimitive(0));
+        Database.INSTANCE.set(key("b"), new JsonPrimitive(0));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> torn = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get() && torn.get() == null) {
+                JsonObject all = Database.INSTANCE.snapshot();
+                if (!all.get("a").equals(all.get("b"))) {
+                    torn.set(all.toString());
+                }
+            }
+        });
+        reader.start();
+        for (int i = 1; i <= 500; i++) {
+            Database.INSTANCE.transaction(Map.of(), List.of(
+                    Mutation.set(key("a"), new JsonPrimitive(i)),
+                    Mutation.set(key("b"), new JsonPrimitive(i))));
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(torn.get());
+    }
+
+    private static boolean tryIncrement() {
+        long version = Database.INSTANCE.version(key("counter"));
+        int value = Database.INSTANCE.get(key("counter")).getAsInt();
+        try {
+            Database.INSTANCE.transaction(Map.of(KeyPath.of(key("counter")), version),
+                    List.of(Mutation.set(key("counter"), new JsonPrimitive(value + 1))));
+            return true;
+        } catch (TransactionConflictException e) {
+            return false;
+        }
+    }
+
+    private static JsonElement get(String key) {
+        try {
+            return Database.INSTANCE.get(key(key));
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    /** A top-level key, or a nested one written as a JSON array. */
+    private static JsonElement key(String key) {
+        return key.startsWith("[") ? JsonParser.parseString(key) : new JsonPrimitive(key);
+    }
+}
@@ -0,0 +1,94 @@
+package server.database;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.database.locks.StripedLocks;
+import server.database.persistence.MemoryPersistence;
+import server.exceptions.NoSuchKeyException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateTest {
+
+    private static final JsonPrimitive KEY = new JsonPrimitive("counter");
+
+    @BeforeEach
+    void open() {
+        Database.INSTANCE.setPersistence(new MemoryPersistence());
+        Database.INSTANCE.setLocks(new StripedLocks(16));
+        Database.INSTANCE.init();
+    }
+
+    @AfterEach
+    void close() {
+        Database.INSTANCE.close();
+    }
+
+    @Test
+    void concurrentUpdatesAreNotLost() throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    Database.INSTANCE.update(KEY, UpdateTest::increment);
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(new JsonPrimitive(4000), Database.INSTANCE.get(KEY));
+    }
+
+    @Test
+    void missingKeyIsReadAsNull() {
+        List<JsonElement> seen = new ArrayList<>();
+        Database.INSTANCE.update(KEY, current -> {
+            seen.add(current);
+            return increment(current);
+        });
+
+        assertEquals(1, seen.size());
+        assertNull(seen.get(0));
+        assertEquals(new JsonPrimitive(1), Database.INSTANCE.get(KEY));
+    }
+
+    @Test
+    void failedFunctionChangesNothing() {
+        Database.INSTANCE.set(KEY, new JsonPrimitive(1));
+        long version = Database.INSTANCE.version(KEY);
+
+        assertThrows(IllegalStateException.class, () -> Database.INSTANCE.update(KEY, current -> {
+            throw new IllegalStateException();
+        }));
+
+        assertEquals(new JsonPrimitive(1), Database.INSTANCE.get(KEY));
+        assertEquals(version, Database.INSTANCE.version(KEY));
+    }
+
+    @Test
+    void keepsTheTtlDeadline() throws InterruptedException {
+        Database.INSTANCE.set(KEY, new JsonPrimitive(1), 200);
+        Database.INSTANCE.update(KEY, UpdateTest::increment);
+        assertTrue(Database.INSTANCE.hasTtl(KeyPath.of(KEY)));
+
+        Thread.sleep(300);
+
+        assertThrows(NoSuchKeyException.class, () -> Database.INSTANCE.get(KEY));
+    }
+
+    private static JsonElement increment(JsonElement current) {
+        return new JsonPrimitive(current == null ? 1 : current.getAsInt() + 1);
+    }
+}
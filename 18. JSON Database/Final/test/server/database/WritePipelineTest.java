@@ -0,0 +1,114 @@
+package server.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WritePipelineTest {
+
+    private WritePipeline pipeline;
+
+    @AfterEach
+    void close() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    void runsEveryWriteOnOneThreadInsideABatch() throws InterruptedException {
+        AtomicBoolean inBatch = new AtomicBoolean();
+        AtomicInteger outside = new AtomicInteger();
+        pipeline = new WritePipeline(8, new WritePipeline.Batch() {
+            @Override
+            public void begin() {
+                inBatch.set(true);
+            }
+
+            @Override
+            public CompletableFuture<Void> end() {
+                inBatch.set(false);
+                return CompletableFuture.completedFuture(null);
+            }
+        });
+        // Not synchronized: only correct if a single thread applies the writes
+        int[] counter = new int[1];
+        List<Thread> callers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            callers.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    pipeline.execute(() -> {
+                        if (!pipeline.isWriter() || !inBatch.get()) {
+                            outside.incrementAndGet();
+                        }
+                        return ++counter[0];
+                    }, false);
+                }
+            }));
+        }
+        callers.forEach(Thread::start);
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        int total = pipeline.execute(() -> counter[0], false);
+        assertEquals(0, outside.get());
+        assertEquals(8000, total);
+    }
+
+    @Test
+    void rethrowsWhatTheWriteThrew() {
+        pipeline = new WritePipeline(4, new CompletedBatch());
+
+        assertThrows(IllegalStateException.class, () -> pipeline.execute(() -> {
+            throw new IllegalStateException();
+        }, false));
+        String next = pipeline.execute(() -> "next", false);
+        assertEquals("next", next);
+    }
+
+    @Test
+    void syncWriteWaitsForTheBatchToBeDurable() throws Exception {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        pipeline = new WritePipeline(4, new WritePipeline.Batch() {
+            @Override
+            public void begin() {
+            }
+
+            @Override
+            public CompletableFuture<Void> end() {
+                return durable;
+            }
+        });
+        CompletableFuture<String> sync = CompletableFuture.supplyAsync(() -> pipeline.execute(() -> "sync", true));
+        Thread.sleep(100);
+        assertFalse(sync.isDone());
+
+        durable.complete(null);
+
+        assertEquals("sync", sync.get());
+        assertTrue(sync.isDone());
+    }
+
+    private static final class CompletedBatch implements WritePipeline.Batch {
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public CompletableFuture<Void> end() {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
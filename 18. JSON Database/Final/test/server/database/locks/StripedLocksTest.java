@@ -0,0 +1,68 @@
+package server.database.locks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedLocksTest {
+
+    @Test
+    void keysTakeTheirStripesInOneOrder() {
+        StripedLocks locks = new StripedLocks(64);
+        List<String> keys = List.of("a", "b", "c", "d", "e", "f");
+
+        List<Lock> forward = locks.writeLocks(keys);
+        List<Lock> backward = locks.writeLocks(List.of("f", "e", "d", "c", "b", "a"));
+
+        assertEquals(forward, backward);
+        for (String key : keys) {
+            assertTrue(forward.contains(locks.writeLock(key)));
+        }
+    }
+
+    @Test
+    void keysSharingAStripeLockItOnce() {
+        StripedLocks locks = new StripedLocks(1);
+
+        assertEquals(1, locks.writeLocks(List.of("a", "b", "c")).size());
+    }
+
+    @Test
+    void lockAllHoldsBackWritersOfEveryKey() throws Exception {
+        StripedLocks locks = new StripedLocks(8);
+        locks.lockAll(false);
+        try {
+            for (String key : List.of("a", "b", "c", "d")) {
+                assertFalse(CompletableFuture.supplyAsync(() -> locks.writeLock(key).tryLock()).get());
+                assertTrue(CompletableFuture.supplyAsync(() -> {
+                    Lock read = locks.readLock(key);
+                    boolean locked = read.tryLock();
+                    if (locked) {
+                        read.unlock();
+                    }
+                    return locked;
+                }).get());
+            }
+        } finally {
+            locks.unlockAll(false);
+        }
+    }
+
+    @Test
+    void writerHoldsBackReadersOfItsStripe() throws Exception {
+        StripedLocks locks = new StripedLocks(4);
+        Lock write = locks.writeLock("a");
+        write.lock();
+        try {
+            assertFalse(CompletableFuture.supplyAsync(() -> locks.readLock("a").tryLock()).get());
+        } finally {
+            write.unlock();
+        }
+    }
+}
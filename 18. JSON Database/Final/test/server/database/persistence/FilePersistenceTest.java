@@ -0,0 +1,124 @@
+package server.database.persistence;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import server.database.Database;
+import server.database.Mutation;
+import server.database.locks.GlobalLocks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilePersistenceTest {
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private FilePersistence persistence;
+
+    @BeforeEach
+    void open() {
+        file = directory.resolve("db.json");
+        persistence = new FilePersistence(file);
+        Database.INSTANCE.setPersistence(persistence);
+        Database.INSTANCE.setLocks(new GlobalLocks());
+        Database.INSTANCE.setDurability(Durability.SYNC);
+        Database.INSTANCE.init();
+    }
+
+    @AfterEach
+    void close() {
+        Database.INSTANCE.close();
+        Database.INSTANCE.setDurability(Durability.SYNC);
+    }
+
+    @Test
+    void syncWriteIsOnDiskWhenSetReturns() throws IOException {
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(1));
+
+        assertEquals(new JsonPrimitive(1), stored("a"));
+    }
+
+    @Test
+    void asyncWriteReachesDiskWithinDelay() throws Exception {
+        Database.INSTANCE.setDurability(Durability.ASYNC);
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(1));
+
+        assertNull(stored("a"), "answered before the background write");
+        long deadline = System.currentTimeMillis() + 5 * FilePersistence.ASYNC_DELAY_MILLIS;
+        while (stored("a") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(new JsonPrimitive(1), stored("a"));
+    }
+
+    @Test
+    void asyncFutureCompletesOnceCheckpointCoversIt() throws IOException {
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(1));
+        CompletableFuture<Void> durable = persistence.record(
+                Mutation.set(new JsonPrimitive("b"), new JsonPrimitive(2)), null, Durability.ASYNC);
+        assertFalse(durable.isDone());
+
+        Database.INSTANCE.checkpoint();
+
+        assertTrue(durable.isDone());
+        assertFalse(durable.isCompletedExceptionally());
+    }
+
+    @Test
+    void noneWriteReachesDiskOnClose() throws IOException {
+        Database.INSTANCE.setDurability(Durability.NONE);
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(1));
+        assertNull(stored("a"));
+
+        Database.INSTANCE.close();
+
+        assertEquals(new JsonPrimitive(1), stored("a"));
+    }
+
+    @Test
+    void staleCheckpointDoesNotReplaceNewerWrite() throws IOException {
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(1));
+        long position = persistence.position();
+        JsonObject old = new JsonObject();
+        old.addProperty("a", 1);
+        Database.INSTANCE.set(new JsonPrimitive("a"), new JsonPrimitive(2));
+
+        persistence.checkpoint(old, position);
+
+        assertEquals(new JsonPrimitive(2), stored("a"));
+    }
+
+    @Test
+    void reloadsWhatWasWritten() throws IOException {
+        Database.INSTANCE.set(new JsonPrimitive("a"), JsonParser.parseString("{\"b\":[1,2]}"));
+        Database.INSTANCE.close();
+
+        Database.INSTANCE.setPersistence(new FilePersistence(file));
+        Database.INSTANCE.init();
+
+        assertEquals(JsonParser.parseString("[1,2]"), Database.INSTANCE.get(JsonParser.parseString("[\"a\",\"b\"]")));
+    }
+
+    /** The value of the top-level key in the file, null if the file or the key is missing. */
+    private JsonElement stored(String key) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return JsonParser.parseString(Files.readString(file)).getAsJsonObject().get(key);
+    }
+}
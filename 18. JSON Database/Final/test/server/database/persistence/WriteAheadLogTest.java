@@ -0,0 +1,171 @@
+package server.database.persistence;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import server.database.Mutation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTest {
+
+    // Large enough that the log never asks the database for a checkpoint
+    private static final long NO_CHECKPOINT = Long.MAX_VALUE;
+
+    @TempDir
+    Path directory;
+
+    private WriteAheadLog wal;
+
+    @AfterEach
+    void close() {
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    @Test
+    void recoversRecordedMutationsInOrder() throws IOException {
+        wal = open();
+        wal.record(Mutation.set(new JsonPrimitive("a"), new JsonPrimitive(1)), null, Durability.SYNC).join();
+        wal.record(Mutation.set(new JsonPrimitive("b"), new JsonPrimitive(2)), null, Durability.SYNC).join();
+        wal.record(Mutation.delete(new JsonPrimitive("a")), null, Durability.SYNC).join();
+        wal.close();
+
+        wal = new WriteAheadLog(directory, null, NO_CHECKPOINT);
+        assertFalse(wal.loadSnapshot(new MapSink(), 0));
+        List<String> replayed = replay(wal);
+
+        assertEquals(List.of("set a=1", "set b=2", "delete a"), replayed);
+        assertEquals(3, wal.position());
+    }
+
+    @Test
+    void recoversNoneDurabilityRecordsWrittenBeforeClose() throws IOException {
+        wal = open();
+        wal.record(Mutation.set(new JsonPrimitive("a"), new JsonPrimitive(1)), null, Durability.NONE);
+        wal.record(Mutation.set(new JsonPrimitive("b"), new JsonPrimitive(2)), null, Durability.ASYNC);
+        wal.close();
+
+        wal = new WriteAheadLog(directory, null, NO_CHECKPOINT);
+        wal.loadSnapshot(new MapSink(), 0);
+
+        assertEquals(List.of("set a=1", "set b=2"), replay(wal));
+    }
+
+    @Test
+    void stopsReplayAtTornTail() throws IOException {
+        wal = open();
+        wal.record(Mutation.set(new JsonPrimitive("a"), new JsonPrimitive(1)), null, Durability.SYNC).join();
+        wal.close();
+        Path segment = segments().get(0);
+        Files.writeString(segment, "{\"lsn\":2,\"type\":\"set\",\"ke", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        wal = new WriteAheadLog(directory, null, NO_CHECKPOINT);
+        wal.loadSnapshot(new MapSink(), 0);
+        assertEquals(List.of("set a=1"), replay(wal));
+
+        // New records go to a fresh segment, never behind the torn line
+        wal.record(Mutation.set(new JsonPrimitive("c"), new JsonPrimitive(3)), null, Durability.SYNC).join();
+        wal.close();
+        wal = new WriteAheadLog(directory, null, NO_CHECKPOINT);
+        wal.loadSnapshot(new MapSink(), 0);
+
+        assertEquals(List.of("set a=1", "set c=3"), replay(wal));
+    }
+
+    @Test
+    void replaysOnlyRecordsAfterCheckpoint() throws IOException {
+        wal = open();
+        wal.record(Mutation.set(new JsonPrimitive("a"), new JsonPrimitive(1)), null, Durability.SYNC).join();
+        JsonObject snapshot = new JsonObject();
+        snapshot.addProperty("a", 1);
+        wal.checkpoint(snapshot, wal.position());
+        wal.record(Mutation.set(new JsonPrimitive("b"), new JsonPrimitive(2)), null, Durability.SYNC).join();
+        wal.close();
+
+        wal = new WriteAheadLog(directory, null, NO_CHECKPOINT);
+        MapSink sink = new MapSink();
+        assertTrue(wal.loadSnapshot(sink, 0));
+
+        assertEquals(Map.of("a", new JsonPrimitive(1)), sink.values);
+        assertEquals(List.of("set b=2"), replay(wal));
+        assertEquals(2, wal.position());
+    }
+
+    @Test
+    void recoversTransactionAsOneRecord() throws IOException {
+        wal = open();
+        List<Mutation> writes = List.of(
+                Mutation.set(new JsonPrimitive("a"), new JsonPrimitive(1)),
+                Mutation.delete(new JsonPrimitive("b")));
+        wal.record(Mutation.transaction(writes), null, Durability.SYNC).join();
+        wal.close();
+
+        wal = new WriteAheadLog(directory, null, NO_CHECKPOINT);
+        wal.loadSnapshot(new MapSink(), 0);
+        List<Mutation> replayed = new ArrayList<>();
+        wal.replay(replayed::add);
+
+        assertEquals(1, replayed.size());
+        assertEquals(Mutation.Type.TRANSACTION, replayed.get(0).getType());
+        assertEquals(List.of("set a=1", "delete b"),
+                replayed.get(0).getMutations().stream().map(WriteAheadLogTest::describe).collect(Collectors.toList()));
+    }
+
+    private WriteAheadLog open() throws IOException {
+        WriteAheadLog log = new WriteAheadLog(directory, null, NO_CHECKPOINT);
+        log.loadSnapshot(new MapSink(), 0);
+        log.replay(mutation -> { });
+        return log;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("wal-")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> replay(WriteAheadLog log) throws IOException {
+        List<String> replayed = new ArrayList<>();
+        log.replay(mutation -> replayed.add(describe(mutation)));
+        return replayed;
+    }
+
+    private static String describe(Mutation mutation) {
+        String key = mutation.getKey().getAsString();
+        return mutation.getType() == Mutation.Type.SET ? "set " + key + "=" + mutation.getValue() : "delete " + key;
+    }
+
+    private static final class MapSink implements SnapshotReader.Sink {
+
+        final Map<String, JsonElement> values = new HashMap<>();
+
+        @Override
+        public void put(String key, JsonElement value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public void putLazy(String key, LazyValue value) {
+            values.put(key, value.parse());
+        }
+    }
+}